@@ -0,0 +1,50 @@
+package bgu.spl.net.impl.rci;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding an object and decoding it back, byte by byte as the servers feed the decoder
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class ObjectEncoderDecoderBenchmark {
+
+    private final ObjectEncoderDecoder codec = new ObjectEncoderDecoder();
+    private ArrayList<String> message;
+
+    @Setup
+    public void setup() {
+        message = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            message.add("news item " + i);
+        }
+    }
+
+    @Benchmark
+    public Serializable roundTrip() {
+        Serializable decoded = null;
+        for (byte b : codec.encode(message)) {
+            Serializable result = codec.decodeNextByte(b);
+            if (result != null) {
+                decoded = result;
+            }
+        }
+        return decoded;
+    }
+}
@@ -0,0 +1,282 @@
+package bgu.spl.net.impl.stomp;
+
+import bgu.spl.net.log.Level;
+import bgu.spl.net.log.Log;
+import bgu.spl.net.srv.ConnectionHandler;
+import bgu.spl.net.srv.ConnectionsImpl;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Allocation budgets of the frame path, checked by the verify phase of this module.
+ *
+ * Frames are decoded from bytes and processed by {@link StompMessagingProtocolImpl} through {@link ConnectionsImpl},
+ * the handlers encode what they are sent into a reused buffer, as the server does minus the sockets.
+ * The bytes allocated by the processing thread are read from the JVM's per-thread allocation counter and divided
+ * by the number of frames. The SQL sidecar is replaced by a stub answering "done", on a free port handed to the
+ * server through stomp.sql.port, so a running sidecar or a parallel build does not get in the way. Its thread is
+ * not counted, and neither is the thread writing audit rows behind the protocol.
+ *
+ * The run fails when a scenario allocates more than its budget per frame. Budgets are the measured allocation
+ * with some headroom: a change that lowers allocation should lower its budget, one that raises it has to
+ * justify raising the budget. They were measured on Temurin 17.0.9 (x86_64 Linux, default G1 settings).
+ * Allocation depends on the JDK's own library code, other versions or vendors may need other budgets.
+ */
+public class AllocationBudget {
+
+    private static final String CHANNEL = "/germany_spain";
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 20;
+    private static final int CONNECTIONS = 50;
+    private static final int SENDS_PER_ROUND = 50;
+
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final ConnectionsImpl<StompFrame> connections = new ConnectionsImpl<>();
+    private int nextConnectionId = 0;
+
+    public static void main(String[] args) throws Exception {
+        Log.setLevel(Level.ERROR);
+        try (SidecarStub sidecar = SidecarStub.start()) {
+            // before the protocol first touches the Database, which reads it once
+            System.setProperty("stomp.sql.port", String.valueOf(sidecar.port()));
+            AllocationBudget check = new AllocationBudget();
+            int over = 0;
+            over += check.report("CONNECT", check.connect(), 850);
+            over += check.report("SUBSCRIBE", check.subscribe(), 1_100);
+            over += check.report("SEND to 1 subscriber", check.send(1), 5_600);
+            over += check.report("SEND to 10 subscribers", check.send(10), 8_900);
+            over += check.report("SEND to 100 subscribers", check.send(100), 42_000);
+            if (over > 0) {
+                System.out.println(over + " allocation budget(s) exceeded");
+                System.exit(1);
+            }
+        }
+    }
+
+    private int report(String scenario, double bytesPerFrame, long budget) {
+        boolean ok = bytesPerFrame <= budget;
+        System.out.printf("%-26s %10.0f B/frame  budget %8d  %s%n", scenario, bytesPerFrame, budget, ok ? "ok" : "OVER");
+        return ok ? 0 : 1;
+    }
+
+    /**
+     * CONNECT of already opened connections, each logging in an existing user
+     */
+    private double connect() {
+        List<Client> clients = new ArrayList<>();
+        List<byte[]> connects = new ArrayList<>();
+        for (int i = 0; i < CONNECTIONS; i++) {
+            clients.add(new Client());
+            connects.add(connectFrame("user" + i));
+        }
+        long allocated = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long before = allocatedBytes();
+            for (int i = 0; i < CONNECTIONS; i++) {
+                clients.get(i).receive(connects.get(i));
+            }
+            if (round >= WARMUP_ROUNDS) {
+                allocated += allocatedBytes() - before;
+            }
+            // a new connection for every user, as after a client logs out and back in
+            for (int i = 0; i < CONNECTIONS; i++) {
+                clients.get(i).receive(frame("DISCONNECT", ""));
+                clients.set(i, new Client());
+            }
+        }
+        return (double) allocated / (MEASURED_ROUNDS * CONNECTIONS);
+    }
+
+    /**
+     * SUBSCRIBE of logged in connections to a game channel
+     */
+    private double subscribe() {
+        List<Client> clients = new ArrayList<>();
+        for (int i = 0; i < CONNECTIONS; i++) {
+            clients.add(new Client().login("subscriber" + i));
+        }
+        byte[] subscribe = frame("SUBSCRIBE", "", "destination", CHANNEL, "id", "1", "receipt", "1");
+        byte[] unsubscribe = frame("UNSUBSCRIBE", "", "id", "1");
+        long allocated = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long before = allocatedBytes();
+            for (Client client : clients) {
+                client.receive(subscribe);
+            }
+            if (round >= WARMUP_ROUNDS) {
+                allocated += allocatedBytes() - before;
+            }
+            for (Client client : clients) {
+                client.receive(unsubscribe);
+            }
+        }
+        for (Client client : clients) {
+            client.receive(frame("DISCONNECT", ""));
+        }
+        return (double) allocated / (MEASURED_ROUNDS * CONNECTIONS);
+    }
+
+    /**
+     * SEND of a game event report, fanned out to the subscribers of its channel
+     */
+    private double send(int subscribers) {
+        List<Client> clients = new ArrayList<>();
+        for (int i = 0; i < subscribers; i++) {
+            Client subscriber = new Client().login("fan" + subscribers + "_" + i);
+            subscriber.receive(frame("SUBSCRIBE", "", "destination", CHANNEL, "id", "1"));
+            clients.add(subscriber);
+        }
+        Client publisher = new Client().login("publisher" + subscribers);
+        byte[] send = frame("SEND", StompCodecBenchmark.event(), "destination", CHANNEL,
+                "file-name", "events1.json", "user-name", "publisher", "receipt", "7");
+        long allocated = 0;
+        for (int round = 0; round < WARMUP_ROUNDS + MEASURED_ROUNDS; round++) {
+            long before = allocatedBytes();
+            for (int i = 0; i < SENDS_PER_ROUND; i++) {
+                publisher.receive(send);
+            }
+            if (round >= WARMUP_ROUNDS) {
+                allocated += allocatedBytes() - before;
+            }
+        }
+        for (Client subscriber : clients) {
+            if (subscriber.handler.frames == 0) {
+                throw new IllegalStateException("A subscriber received nothing");
+            }
+            subscriber.receive(frame("DISCONNECT", ""));
+        }
+        publisher.receive(frame("DISCONNECT", ""));
+        return (double) allocated / (MEASURED_ROUNDS * SENDS_PER_ROUND);
+    }
+
+    private long allocatedBytes() {
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static byte[] connectFrame(String user) {
+        return frame("CONNECT", "", "accept-version", "1.2", "host", "stomp.cs.bgu.ac.il", "login", user, "passcode", "pass");
+    }
+
+    private static byte[] frame(String command, String body, String... headers) {
+        StompFrame frame = new StompFrame(command);
+        for (int i = 0; i < headers.length; i += 2) {
+            frame.addHeader(headers[i], headers[i + 1]);
+        }
+        frame.setBody(body);
+        return new StompFrameEncoderDecoder().encode(frame);
+    }
+
+    /**
+     * A connection of the server without a socket: bytes are decoded and processed on the calling thread
+     */
+    private class Client {
+        private final StompFrameEncoderDecoder decoder = new StompFrameEncoderDecoder();
+        private final StompMessagingProtocolImpl protocol = new StompMessagingProtocolImpl();
+        private final EncodingHandler handler = new EncodingHandler();
+
+        Client() {
+            int id = nextConnectionId++;
+            connections.addConnection(id, handler);
+            protocol.start(id, connections);
+        }
+
+        Client login(String user) {
+            receive(connectFrame(user));
+            return this;
+        }
+
+        void receive(byte[] bytes) {
+            for (byte b : bytes) {
+                StompFrame frame = decoder.decodeNextByte(b);
+                if (frame != null) {
+                    protocol.process(frame);
+                }
+            }
+        }
+    }
+
+    /**
+     * Encodes what it is sent into a reused buffer, as the connection handlers do before writing
+     */
+    private static class EncodingHandler implements ConnectionHandler<StompFrame> {
+        private final StompFrameEncoderDecoder encoder = new StompFrameEncoderDecoder();
+        private final ByteBuffer out = ByteBuffer.allocate(1 << 16);
+        long frames = 0;
+
+        @Override
+        public void send(StompFrame msg) {
+            out.clear();
+            if (!encoder.encode(msg, out)) {
+                encoder.encode(msg);
+            }
+            frames++;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Answers every statement sent to the SQL sidecar port with "done"
+     */
+    private static class SidecarStub implements AutoCloseable {
+        private final ServerSocket server;
+
+        private SidecarStub(ServerSocket server) {
+            this.server = server;
+        }
+
+        static SidecarStub start() throws IOException {
+            ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread acceptor = new Thread(() -> {
+                while (!server.isClosed()) {
+                    try {
+                        Socket sock = server.accept();
+                        Thread client = new Thread(() -> serve(sock), "sidecar-stub-client");
+                        client.setDaemon(true);
+                        client.start();
+                    } catch (IOException e) {
+                        // closed
+                    }
+                }
+            }, "sidecar-stub");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            return new SidecarStub(server);
+        }
+
+        int port() {
+            return server.getLocalPort();
+        }
+
+        private static void serve(Socket sock) {
+            byte[] done = "done\0".getBytes(StandardCharsets.UTF_8);
+            try (Socket s = sock; InputStream in = s.getInputStream(); OutputStream out = s.getOutputStream()) {
+                int read;
+                while ((read = in.read()) >= 0) {
+                    if (read == 0) {
+                        out.write(done);
+                    }
+                }
+            } catch (IOException e) {
+                // the client went away
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package bgu.spl.net.impl.stomp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Decoding SENDs and encoding MESSAGEs with the text and binary codecs,
+ * for a typical game event and for a large game report
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class StompCodecBenchmark {
+
+    @Param({"event", "report"})
+    public String body;
+
+    private byte[] textSend;
+    private byte[] binarySend;
+    private StompFrame message;
+    private StompFrameEncoderDecoder textCodec;
+    private StompBinaryEncoderDecoder binaryCodec;
+    private ByteBuffer out;
+
+    @Setup
+    public void setup() {
+        String text = body.equals("event") ? event() : report();
+
+        StompFrame send = new StompFrame("SEND");
+        send.addHeader("destination", "/germany_spain");
+        send.addHeader("receipt", "42");
+        send.setBody(text);
+        textSend = new StompFrameEncoderDecoder().encode(send);
+        binarySend = new StompBinaryEncoderDecoder().encode(send);
+
+        message = new StompFrame("MESSAGE");
+        message.addHeader("subscription", "17");
+        message.addHeader("message-id", "123456");
+        message.addHeader("destination", "/germany_spain");
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        message.setBody(bytes, 0, bytes.length);
+
+        textCodec = new StompFrameEncoderDecoder();
+        binaryCodec = new StompBinaryEncoderDecoder();
+        out = ByteBuffer.allocateDirect(1 << 16);
+    }
+
+    static String event() {
+        return "user: meni\nteam a: germany\nteam b: spain\nevent name: goal\ntime: 120\n"
+                + "general game updates:\nactive: true\nteam a updates:\ngoals: 1\nteam b updates:\n"
+                + "description:\nA fantastic header into the top corner!\n";
+    }
+
+    static String report() {
+        StringBuilder sb = new StringBuilder(event());
+        for (int i = 0; i < 300; i++) {
+            sb.append("Minute ").append(i % 90).append(": the ball is moving through midfield, both teams pressing.\n");
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public StompFrame decodeText() {
+        StompFrame frame = null;
+        for (byte b : textSend) {
+            StompFrame decoded = textCodec.decodeNextByte(b);
+            if (decoded != null) {
+                frame = decoded;
+            }
+        }
+        return frame;
+    }
+
+    @Benchmark
+    public StompFrame decodeBinary() {
+        StompFrame frame = null;
+        for (byte b : binarySend) {
+            StompFrame decoded = binaryCodec.decodeNextByte(b);
+            if (decoded != null) {
+                frame = decoded;
+            }
+        }
+        return frame;
+    }
+
+    @Benchmark
+    public byte[] encodeTextToArray() {
+        return textCodec.encode(message);
+    }
+
+    @Benchmark
+    public void encodeTextToBuffer(Blackhole bh) {
+        out.clear();
+        bh.consume(textCodec.encode(message, out));
+    }
+
+    @Benchmark
+    public void encodeBinaryToBuffer(Blackhole bh) {
+        out.clear();
+        bh.consume(binaryCodec.encode(message, out));
+    }
+}
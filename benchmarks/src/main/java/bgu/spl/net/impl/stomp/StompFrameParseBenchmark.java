@@ -0,0 +1,53 @@
+package bgu.spl.net.impl.stomp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing a complete SEND in place, without and with reading the parts the protocol uses
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class StompFrameParseBenchmark {
+
+    private byte[] bytes;
+    private int length;
+    private final StompFrame frame = new StompFrame(null);
+
+    @Setup
+    public void setup() {
+        String text = "SEND\ndestination:/germany_spain\nreceipt:42\nfile-name:events1.json\n\n" + StompCodecBenchmark.event();
+        bytes = text.getBytes(StandardCharsets.UTF_8);
+        length = bytes.length;
+    }
+
+    @Benchmark
+    public boolean wrap() {
+        return frame.wrap(bytes, length);
+    }
+
+    @Benchmark
+    public void wrapAndRead(Blackhole bh) {
+        frame.wrap(bytes, length);
+        bh.consume(frame.getCommand());
+        bh.consume(frame.getHeader("destination"));
+        bh.consume(frame.getHeader("receipt"));
+        bh.consume(frame.getHeader("transaction"));
+        bh.consume(frame.getBody());
+    }
+}
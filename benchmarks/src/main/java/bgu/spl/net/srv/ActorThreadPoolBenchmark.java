@@ -0,0 +1,69 @@
+package bgu.spl.net.srv;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of {@link ActorThreadPool}: a batch of empty tasks is spread over the actors and
+ * the benchmark waits until all of them ran, as the reactor does with the reads of its connections
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class ActorThreadPoolBenchmark {
+
+    private static final int BATCH = 1000;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"1", "64"})
+    public int actors;
+
+    private ActorThreadPool pool;
+    private Object[] acts;
+    private final AtomicInteger done = new AtomicInteger();
+    private final Runnable task = done::incrementAndGet;
+
+    @Setup
+    public void setup() {
+        pool = new ActorThreadPool(threads);
+        acts = new Object[actors];
+        for (int i = 0; i < actors; i++) {
+            acts[i] = new Object();
+        }
+    }
+
+    @TearDown
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void submit() {
+        done.set(0);
+        for (int i = 0; i < BATCH; i++) {
+            pool.submit(acts[i % actors], task);
+        }
+        while (done.get() < BATCH) {
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,718 @@
+package bgu.spl.net.srv;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Concurrency checks of {@link ConnectionsImpl} and {@link ActorThreadPool}, run by the verify phase of this module.
+ *
+ * Litmus tests, in the style of jcstress, run two actions from two threads at the same time many times over,
+ * each time on fresh state, and collect the outcomes seen after both finished. An outcome that is not allowed,
+ * like a subscription left in the channel index but not in its connection's list, fails the run.
+ *
+ * Stress tests then hammer shared instances from several threads for a few seconds and check invariants at the end:
+ * the subscriptions of every connection are exactly the ones its thread made, the channel index agrees with them,
+ * subscribers that never changed received every message exactly once, and the actor pool ran every task once,
+ * never two of one actor at a time and in submission order.
+ *
+ * The checks run at verify, in their own JVM, rather than as tests of the server: the server is built with no
+ * dependencies and has no test suite, and the checks need its installed jar, as the benchmarks do. Each check
+ * prints ok or FAILED with the outcomes or problems seen. A failed run lists the failed checks on standard error
+ * and exits with status 1, which fails the build.
+ *
+ * Usage: java -cp target/benchmarks.jar bgu.spl.net.srv.ConcurrencyStress [iterations] [stress seconds]
+ */
+public class ConcurrencyStress {
+
+    private final int iterations;
+    private final int stressSeconds;
+    private final List<String> failed = new ArrayList<>();
+
+    public ConcurrencyStress(int iterations, int stressSeconds) {
+        this.iterations = iterations;
+        this.stressSeconds = stressSeconds;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        ConcurrencyStress stress = new ConcurrencyStress(iterations, seconds);
+        stress.run();
+        if (!stress.failed.isEmpty()) {
+            System.err.println(stress.failed.size() + " concurrency check(s) failed: " + String.join(", ", stress.failed));
+            System.exit(1);
+        }
+    }
+
+    public void run() throws Exception {
+        litmus(new UnsubscribeVersusSubscribe());
+        litmus(new DisconnectVersusSubscribe());
+        litmus(new SendVersusUnsubscribe());
+        litmus(new UnsubscribeOneOfTwo());
+        litmus(new SubscribeVersusCachedMatch());
+        litmus(new OfferVersusAckOnFullWindow());
+        ActorThreadPool pool = new ActorThreadPool(4);
+        try {
+            litmus(new SameActorSubmits(pool));
+        } finally {
+            pool.shutdown();
+        }
+        stressConnections();
+        stressActorPool();
+    }
+
+    // ---------------------------------------------------------------- litmus tests
+
+    /**
+     * Two actions run at the same time on fresh state, then the outcome is read
+     */
+    private abstract static class Litmus {
+        final String name;
+        final Set<String> allowed;
+
+        Litmus(String name, String... allowed) {
+            this.name = name;
+            this.allowed = new HashSet<>(Arrays.asList(allowed));
+        }
+
+        abstract void setup();
+
+        abstract void actor1();
+
+        abstract void actor2();
+
+        /**
+         * Called once both actors finished
+         */
+        abstract String outcome();
+    }
+
+    private void litmus(Litmus test) throws InterruptedException {
+        // the actors spin until the next round is released, so they start as close together as possible
+        AtomicLong round = new AtomicLong();
+        AtomicInteger finished = new AtomicInteger();
+        Thread[] actors = new Thread[2];
+        for (int a = 0; a < 2; a++) {
+            int actor = a;
+            actors[a] = new Thread(() -> {
+                for (long r = 1; r <= iterations; r++) {
+                    while (round.get() < r) {
+                        Thread.yield();
+                    }
+                    if (actor == 0) {
+                        test.actor1();
+                    } else {
+                        test.actor2();
+                    }
+                    finished.incrementAndGet();
+                }
+            }, "litmus-actor-" + (a + 1));
+            actors[a].setDaemon(true);
+        }
+
+        Map<String, Integer> outcomes = new TreeMap<>();
+        test.setup();
+        actors[0].start();
+        actors[1].start();
+        for (long r = 1; r <= iterations; r++) {
+            round.set(r);
+            while (finished.get() < 2 * r) {
+                Thread.yield();
+            }
+            outcomes.merge(test.outcome(), 1, Integer::sum);
+            if (r < iterations) {
+                test.setup();
+            }
+        }
+        actors[0].join();
+        actors[1].join();
+
+        boolean ok = test.allowed.containsAll(outcomes.keySet());
+        System.out.printf("%-44s %s%n", test.name, ok ? "ok" : "FAILED");
+        for (Map.Entry<String, Integer> outcome : outcomes.entrySet()) {
+            System.out.printf("    %-40s %9d  %s%n", outcome.getKey(), outcome.getValue(),
+                    test.allowed.contains(outcome.getKey()) ? "" : "forbidden");
+        }
+        if (!ok) {
+            failed.add(test.name);
+        }
+    }
+
+    /**
+     * @return where a connection's subscription to a channel is found: i for the connection's list,
+     * t for the channel index, - for neither
+     */
+    private static String state(ConnectionsImpl<String> connections, int connectionId, String subscriptionId,
+                                String channel) {
+        boolean indexed = connections.getSubscription(connectionId, subscriptionId) != null;
+        boolean inTrie = false;
+        for (Subscription sub : connections.getSubscriptions(channel)) {
+            inTrie |= sub.getConnectionId() == connectionId && sub.getSubscriptionId().equals(subscriptionId);
+        }
+        return channel + ":" + (indexed ? "i" : "-") + (inTrie ? "t" : "-");
+    }
+
+    /**
+     * The connection's last subscription is removed while it subscribes to another channel
+     */
+    private static class UnsubscribeVersusSubscribe extends Litmus {
+        private ConnectionsImpl<String> connections;
+
+        UnsubscribeVersusSubscribe() {
+            super("unsubscribe last vs subscribe", "/a/b:-- /c/d:it");
+        }
+
+        @Override
+        void setup() {
+            connections = new ConnectionsImpl<>();
+            connections.subscribe("/a/b", 1, "1");
+        }
+
+        @Override
+        void actor1() {
+            connections.unsubscribe(1, "1");
+        }
+
+        @Override
+        void actor2() {
+            connections.subscribe("/c/d", 1, "2");
+        }
+
+        @Override
+        String outcome() {
+            return state(connections, 1, "1", "/a/b") + " " + state(connections, 1, "2", "/c/d");
+        }
+    }
+
+    /**
+     * The connection disconnects while it subscribes. Either order is fine, as long as the list and the index agree.
+     */
+    private static class DisconnectVersusSubscribe extends Litmus {
+        private ConnectionsImpl<String> connections;
+
+        DisconnectVersusSubscribe() {
+            super("disconnect vs subscribe", "/a/b:-- /c/d:--", "/a/b:-- /c/d:it");
+        }
+
+        @Override
+        void setup() {
+            connections = new ConnectionsImpl<>();
+            connections.addConnection(1, new CountingHandler());
+            connections.subscribe("/a/b", 1, "1");
+        }
+
+        @Override
+        void actor1() {
+            connections.disconnect(1);
+        }
+
+        @Override
+        void actor2() {
+            connections.subscribe("/c/d", 1, "2");
+        }
+
+        @Override
+        String outcome() {
+            return state(connections, 1, "1", "/a/b") + " " + state(connections, 1, "2", "/c/d");
+        }
+    }
+
+    /**
+     * One subscriber leaves while a message is sent. The other one, subscribed by name and by pattern,
+     * gets it exactly once either way.
+     */
+    private static class SendVersusUnsubscribe extends Litmus {
+        private ConnectionsImpl<String> connections;
+        private CountingHandler leaving;
+        private CountingHandler staying;
+
+        SendVersusUnsubscribe() {
+            super("send vs unsubscribe of another subscriber", "leaving=0 staying=1", "leaving=1 staying=1");
+        }
+
+        @Override
+        void setup() {
+            connections = new ConnectionsImpl<>();
+            leaving = new CountingHandler();
+            staying = new CountingHandler();
+            connections.addConnection(1, leaving);
+            connections.addConnection(2, staying);
+            connections.subscribe("/a/b", 1, "1");
+            connections.subscribe("/a/b", 2, "1");
+            connections.subscribe("/a/*", 2, "2");
+        }
+
+        @Override
+        void actor1() {
+            connections.send("/a/b", "event");
+        }
+
+        @Override
+        void actor2() {
+            connections.unsubscribe(1, "1");
+        }
+
+        @Override
+        String outcome() {
+            return "leaving=" + leaving.total() + " staying=" + staying.total();
+        }
+    }
+
+    /**
+     * A connection with two subscriptions to one channel removes one of them while a message is sent.
+     * The other one stays, and the message reaches the connection once.
+     */
+    private static class UnsubscribeOneOfTwo extends Litmus {
+        private ConnectionsImpl<String> connections;
+        private CountingHandler handler;
+
+        UnsubscribeOneOfTwo() {
+            super("unsubscribe one of two on a channel vs send", "received=1 /q/r:it");
+        }
+
+        @Override
+        void setup() {
+            connections = new ConnectionsImpl<>();
+            handler = new CountingHandler();
+            connections.addConnection(1, handler);
+            connections.subscribe("/q/r", 1, "a");
+            connections.subscribe("/q/r", 1, "b");
+        }
+
+        @Override
+        void actor1() {
+            connections.unsubscribe(1, "a");
+        }
+
+        @Override
+        void actor2() {
+            connections.send("/q/r", "event");
+        }
+
+        @Override
+        String outcome() {
+            return "received=" + handler.total() + " " + state(connections, 1, "b", "/q/r");
+        }
+    }
+
+    /**
+     * Two connections subscribe to a channel whose matches were cached on its handle while it had none.
+     * The cache must not hide either subscription afterwards.
+     */
+    private static class SubscribeVersusCachedMatch extends Litmus {
+        private ConnectionsImpl<String> connections;
+        private Destination destination;
+
+        SubscribeVersusCachedMatch() {
+            super("subscribe vs cached match", "matches=2");
+        }
+
+        @Override
+        void setup() {
+            connections = new ConnectionsImpl<>();
+            destination = connections.destination("/a/b");
+            connections.getSubscriptions(destination);
+        }
+
+        @Override
+        void actor1() {
+            connections.subscribe("/a/b", 1, "1");
+            connections.getSubscriptions(destination);
+        }
+
+        @Override
+        void actor2() {
+            connections.subscribe("/a/*", 2, "1");
+            connections.getSubscriptions(destination);
+        }
+
+        @Override
+        String outcome() {
+            return "matches=" + connections.getSubscriptions(destination).size();
+        }
+    }
+
+    /**
+     * Messages arrive for a subscriber whose window and held messages are full while it acknowledges one.
+     * Held messages never grow past the cap and none is dropped, exactly one offer reports the overflow.
+     */
+    private static class OfferVersusAckOnFullWindow extends Litmus {
+        private static final int MAX_HELD = 4;
+        private DeliveryWindow<String> window;
+        private int released;
+        private int overflows;
+
+        OfferVersusAckOnFullWindow() {
+            super("offer vs ack on a full delivery window",
+                    "held=3 released=1 overflows=1", "held=4 released=1 overflows=1");
+        }
+
+        @Override
+        void setup() {
+            window = new DeliveryWindow<>(AckMode.CLIENT_INDIVIDUAL, 1, MAX_HELD);
+            for (int i = 0; i <= MAX_HELD; i++) {
+                window.offer("m" + i, "event");
+            }
+            released = 0;
+            overflows = 0;
+        }
+
+        @Override
+        void actor1() {
+            for (String ackId : new String[] {"new1", "new2"}) {
+                if (window.offer(ackId, "event") == DeliveryWindow.Admission.OVERFLOW) {
+                    overflows++;
+                }
+            }
+        }
+
+        @Override
+        void actor2() {
+            released = window.ack("m0").size();
+        }
+
+        @Override
+        String outcome() {
+            return "held=" + window.heldCount() + " released=" + released + " overflows=" + overflows;
+        }
+    }
+
+    /**
+     * Two threads submit a task for the same actor, a new actor every round
+     */
+    private static class SameActorSubmits extends Litmus {
+        private final ActorThreadPool pool;
+        private Object actor;
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger ran = new AtomicInteger();
+        private volatile boolean overlapped;
+
+        SameActorSubmits(ActorThreadPool pool) {
+            super("actor pool: same actor from two threads", "ran=2 overlap=false");
+            this.pool = pool;
+        }
+
+        @Override
+        void setup() {
+            actor = new Object();
+            ran.set(0);
+            overlapped = false;
+        }
+
+        private void task() {
+            if (running.incrementAndGet() > 1) {
+                overlapped = true;
+            }
+            running.decrementAndGet();
+            ran.incrementAndGet();
+        }
+
+        @Override
+        void actor1() {
+            pool.submit(actor, this::task);
+        }
+
+        @Override
+        void actor2() {
+            pool.submit(actor, this::task);
+        }
+
+        @Override
+        String outcome() {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (ran.get() < 2 && System.nanoTime() < deadline) {
+                Thread.yield();
+            }
+            return "ran=" + ran.get() + " overlap=" + overlapped;
+        }
+    }
+
+    // ---------------------------------------------------------------- stress tests
+
+    private static final String[] CHANNELS = {"/usa/canada", "/usa/mexico", "/germany/spain", "/germany/japan"};
+    private static final String[] PATTERNS = {"/usa/*", "/germany/*", "/**"};
+
+    /**
+     * Workers own a few connections each and, like the actors of the server, are the only ones changing them.
+     * They subscribe, unsubscribe, disconnect and send at random, while fixed subscribers count what they get.
+     */
+    private void stressConnections() throws InterruptedException {
+        int workers = 4;
+        int connectionsPerWorker = 8;
+        ConnectionsImpl<String> connections = new ConnectionsImpl<>();
+
+        // fixed subscribers: one by name to every channel, one by name and by the overlapping patterns
+        int byName = workers * connectionsPerWorker;
+        int byPattern = byName + 1;
+        CountingHandler byNameHandler = new CountingHandler();
+        CountingHandler byPatternHandler = new CountingHandler();
+        connections.addConnection(byName, byNameHandler);
+        connections.addConnection(byPattern, byPatternHandler);
+        for (String channel : CHANNELS) {
+            connections.subscribe(channel, byName, channel);
+            connections.subscribe(channel, byPattern, channel);
+        }
+        for (String pattern : PATTERNS) {
+            connections.subscribe(pattern, byPattern, pattern);
+        }
+
+        AtomicLongArray sent = new AtomicLongArray(CHANNELS.length);
+        List<Set<String>> models = new ArrayList<>();
+        for (int i = 0; i < byName; i++) {
+            models.add(new HashSet<>());
+            connections.addConnection(i, new CountingHandler());
+        }
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(stressSeconds);
+        List<Thread> threads = new ArrayList<>();
+        AtomicLong operations = new AtomicLong();
+        for (int w = 0; w < workers; w++) {
+            int first = w * connectionsPerWorker;
+            Thread worker = new Thread(() -> {
+                Random random = new Random(first);
+                long ops = 0;
+                try {
+                    while (System.nanoTime() < deadline) {
+                        int connectionId = first + random.nextInt(connectionsPerWorker);
+                        Set<String> model = models.get(connectionId);
+                        int op = random.nextInt(100);
+                        if (op < 40) {
+                            String channel = random.nextInt(4) == 0
+                                    ? PATTERNS[random.nextInt(PATTERNS.length)] : CHANNELS[random.nextInt(CHANNELS.length)];
+                            if (model.add(channel)) {
+                                connections.subscribe(channel, connectionId, channel);
+                            }
+                        } else if (op < 75 && !model.isEmpty()) {
+                            String channel = model.iterator().next();
+                            model.remove(channel);
+                            connections.unsubscribe(connectionId, channel);
+                        } else if (op < 80) {
+                            model.clear();
+                            connections.disconnect(connectionId);
+                            connections.addConnection(connectionId, new CountingHandler());
+                        } else {
+                            int channel = random.nextInt(CHANNELS.length);
+                            // count before sending, so a message is never seen before it was counted
+                            sent.incrementAndGet(channel);
+                            if (random.nextBoolean()) {
+                                connections.send(CHANNELS[channel], CHANNELS[channel]);
+                            } else {
+                                sendByHandle(connections, CHANNELS[channel]);
+                            }
+                        }
+                        ops++;
+                    }
+                } catch (Throwable t) {
+                    error.compareAndSet(null, t);
+                }
+                operations.addAndGet(ops);
+            }, "stress-connections-" + w);
+            threads.add(worker);
+            worker.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        List<String> problems = new ArrayList<>();
+        if (error.get() != null) {
+            problems.add("a worker failed: " + error.get());
+        }
+        for (int i = 0; i < CHANNELS.length; i++) {
+            long expected = sent.get(i);
+            if (byNameHandler.count(CHANNELS[i]) != expected) {
+                problems.add(CHANNELS[i] + ": subscriber by name got " + byNameHandler.count(CHANNELS[i]) + " of " + expected);
+            }
+            if (byPatternHandler.count(CHANNELS[i]) != expected) {
+                problems.add(CHANNELS[i] + ": subscriber by patterns got " + byPatternHandler.count(CHANNELS[i]) + " of " + expected);
+            }
+        }
+        for (int connectionId = 0; connectionId < byName; connectionId++) {
+            Set<String> model = models.get(connectionId);
+            for (String channel : concat(CHANNELS, PATTERNS)) {
+                // subscription ids are the channel names
+                boolean indexed = connections.getSubscription(connectionId, channel) != null;
+                if (indexed != model.contains(channel)) {
+                    problems.add("connection " + connectionId + " " + channel + ": listed " + indexed + ", subscribed " + model.contains(channel));
+                }
+            }
+        }
+        // every subscription the index matches is one its connection holds
+        for (String channel : CHANNELS) {
+            Collection<Subscription> matched = connections.getSubscriptions(channel);
+            Collection<Subscription> cached = connections.getSubscriptions(connections.destination(channel));
+            if (!new HashSet<>(matched).equals(new HashSet<>(cached))) {
+                problems.add(channel + ": cached match differs from the index");
+            }
+            for (Subscription sub : matched) {
+                int connectionId = sub.getConnectionId();
+                if (connectionId < byName && !models.get(connectionId).contains(sub.getChannel())) {
+                    problems.add(channel + ": index holds " + sub.getChannel() + " of connection " + connectionId + ", which left it");
+                }
+            }
+        }
+        report("ConnectionsImpl: " + workers + " threads, " + operations.get() + " operations", problems);
+    }
+
+    private static void sendByHandle(ConnectionsImpl<String> connections, String channel) {
+        // as the protocol publishes: one delivery per connection, even with overlapping subscriptions
+        Set<Integer> sentTo = new HashSet<>();
+        for (Subscription sub : connections.getSubscriptions(connections.destination(channel))) {
+            if (sentTo.add(sub.getConnectionId())) {
+                connections.send(sub.getConnectionId(), channel);
+            }
+        }
+    }
+
+    /**
+     * Producers submit numbered tasks to shared and short-lived actors. Tasks check that no other task of their
+     * actor runs and that tasks of one producer run in the order they were submitted.
+     */
+    private void stressActorPool() throws InterruptedException {
+        int producers = 4;
+        int actorCount = 16;
+        ActorThreadPool pool = new ActorThreadPool(4);
+        AtomicLong submitted = new AtomicLong();
+        AtomicLong executed = new AtomicLong();
+        AtomicLong overlaps = new AtomicLong();
+        AtomicLong outOfOrder = new AtomicLong();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(stressSeconds);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(producer);
+                StressActor[] actors = new StressActor[actorCount];
+                for (int i = 0; i < actorCount; i++) {
+                    actors[i] = SHARED_ACTORS.computeIfAbsent(i, k -> new StressActor(producers));
+                }
+                while (System.nanoTime() < deadline) {
+                    int index = random.nextInt(actorCount + 1);
+                    // a private actor that becomes garbage soon, so the pool sees actors come and go
+                    StressActor actor = index == actorCount ? new StressActor(producers) : actors[index];
+                    long seq = actor.nextSeq(producer);
+                    submitted.incrementAndGet();
+                    pool.submit(actor, () -> {
+                        if (actor.running.incrementAndGet() > 1) {
+                            overlaps.incrementAndGet();
+                        }
+                        if (!actor.ran(producer, seq)) {
+                            outOfOrder.incrementAndGet();
+                        }
+                        actor.running.decrementAndGet();
+                        executed.incrementAndGet();
+                    });
+                    if (submitted.get() - executed.get() > 10_000) {
+                        Thread.yield(); // let the pool catch up
+                    }
+                }
+            }, "stress-producer-" + p);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long wait = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (executed.get() < submitted.get() && System.nanoTime() < wait) {
+            Thread.sleep(1);
+        }
+        pool.shutdown();
+        SHARED_ACTORS.clear();
+
+        List<String> problems = new ArrayList<>();
+        if (executed.get() != submitted.get()) {
+            problems.add(executed.get() + " of " + submitted.get() + " tasks ran");
+        }
+        if (overlaps.get() > 0) {
+            problems.add(overlaps.get() + " tasks ran while another task of their actor did");
+        }
+        if (outOfOrder.get() > 0) {
+            problems.add(outOfOrder.get() + " tasks ran out of submission order");
+        }
+        report("ActorThreadPool: " + producers + " producers, " + submitted.get() + " tasks", problems);
+    }
+
+    private static final Map<Integer, StressActor> SHARED_ACTORS = new ConcurrentHashMap<>();
+
+    private static class StressActor {
+        final AtomicInteger running = new AtomicInteger();
+        // per producer: last sequence number submitted (written by the producer) and run (written by tasks)
+        private final long[] submittedSeq;
+        private final long[] ranSeq;
+
+        StressActor(int producers) {
+            submittedSeq = new long[producers];
+            ranSeq = new long[producers];
+        }
+
+        synchronized long nextSeq(int producer) {
+            return ++submittedSeq[producer];
+        }
+
+        synchronized boolean ran(int producer, long seq) {
+            boolean inOrder = seq == ranSeq[producer] + 1;
+            ranSeq[producer] = seq;
+            return inOrder;
+        }
+    }
+
+    private void report(String name, List<String> problems) {
+        System.out.printf("%-44s %s%n", name, problems.isEmpty() ? "ok" : "FAILED");
+        for (String problem : problems.subList(0, Math.min(problems.size(), 20))) {
+            System.out.println("    " + problem);
+        }
+        if (!problems.isEmpty()) {
+            failed.add(name);
+        }
+    }
+
+    private static List<String> concat(String[] a, String[] b) {
+        List<String> all = new ArrayList<>(Arrays.asList(a));
+        all.addAll(Arrays.asList(b));
+        return all;
+    }
+
+    /**
+     * Counts the messages it is sent, by message
+     */
+    private static class CountingHandler implements ConnectionHandler<String> {
+        private final Map<String, AtomicLong> counts = new ConcurrentHashMap<>();
+
+        @Override
+        public void send(String msg) {
+            counts.computeIfAbsent(msg, k -> new AtomicLong()).incrementAndGet();
+        }
+
+        long count(String msg) {
+            AtomicLong count = counts.get(msg);
+            return count != null ? count.get() : 0;
+        }
+
+        long total() {
+            long total = 0;
+            for (AtomicLong count : counts.values()) {
+                total += count.get();
+            }
+            return total;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package bgu.spl.net.srv;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+/**
+ * Subscription changes and fan-out of {@link ConnectionsImpl} for a channel with a varying number of subscribers.
+ * Handlers only count what they are sent, so the fan-out itself is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(3)
+public class ConnectionsBenchmark {
+
+    private static final String CHANNEL = "/germany/spain";
+    private static final String MESSAGE = "MESSAGE";
+
+    @Param({"1", "10", "100", "1000"})
+    public int subscribers;
+
+    private ConnectionsImpl<String> connections;
+    private Destination destination;
+    private CountingHandler handler;
+
+    @Setup
+    public void setup() {
+        connections = new ConnectionsImpl<>();
+        handler = new CountingHandler();
+        for (int id = 0; id < subscribers; id++) {
+            connections.addConnection(id, handler);
+            connections.subscribe(CHANNEL, id, "sub" + id);
+        }
+        // a wildcard pattern and an unrelated channel, as on a live server
+        connections.subscribe("/germany/*", subscribers, "all-germany");
+        connections.subscribe("/usa/canada", subscribers, "other");
+        destination = connections.destination(CHANNEL);
+    }
+
+    @TearDown
+    public void check(BenchmarkParams params) {
+        // a fan-out that reaches no handler measures nothing, subscribeUnsubscribe sends nothing by design
+        if (params.getBenchmark().contains("fanOut") && handler.sent == 0) {
+            throw new IllegalStateException("nothing was sent");
+        }
+    }
+
+    @Benchmark
+    public void fanOutByName() {
+        connections.send(CHANNEL, MESSAGE);
+    }
+
+    @Benchmark
+    public void fanOutByHandle() {
+        for (Subscription sub : connections.getSubscriptions(destination)) {
+            connections.send(sub.getConnectionId(), MESSAGE);
+        }
+    }
+
+    @Benchmark
+    public void subscribeUnsubscribe() {
+        connections.subscribe(CHANNEL, 0, "extra");
+        connections.unsubscribe(0, "extra");
+    }
+
+    private static class CountingHandler implements ConnectionHandler<String> {
+        long sent = 0;
+
+        @Override
+        public void send(String msg) {
+            sent++;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package bgu.spl.net.tools;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The events of a game file (like client/data/events1.json) as the report bodies a client SENDs for them
+ */
+public final class GameEvents {
+
+    private final String teamA;
+    private final String teamB;
+    private final List<Map<String, Object>> events;
+
+    @SuppressWarnings("unchecked")
+    private GameEvents(Map<String, Object> game) {
+        this.teamA = (String) game.get("team a");
+        this.teamB = (String) game.get("team b");
+        this.events = (List<Map<String, Object>>) (List<?>) game.get("events");
+    }
+
+    @SuppressWarnings("unchecked")
+    public static GameEvents read(String path) throws IOException {
+        String text = new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+        return new GameEvents((Map<String, Object>) Json.parse(text));
+    }
+
+    /**
+     * @return the game's channel, as the client names it
+     */
+    public String channel() {
+        return "/" + teamA.toLowerCase() + "_" + teamB.toLowerCase();
+    }
+
+    public int size() {
+        return events.size();
+    }
+
+    /**
+     * @return the SEND bodies of all events, reported by the given user
+     */
+    public List<String> bodies(String user) {
+        List<String> bodies = new ArrayList<>(events.size());
+        for (Map<String, Object> event : events) {
+            bodies.add(body(user, event));
+        }
+        return Collections.unmodifiableList(bodies);
+    }
+
+    @SuppressWarnings("unchecked")
+    private String body(String user, Map<String, Object> event) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("user: ").append(user).append('\n');
+        sb.append("team a: ").append(teamA).append('\n');
+        sb.append("team b: ").append(teamB).append('\n');
+        sb.append("event name: ").append(event.get("event name")).append('\n');
+        sb.append("time: ").append(asText(event.get("time"))).append('\n');
+        for (String section : new String[]{"general game updates", "team a updates", "team b updates"}) {
+            sb.append(section).append(":\n");
+            Object updates = event.get(section);
+            if (updates instanceof Map) {
+                for (Map.Entry<String, Object> update : ((Map<String, Object>) updates).entrySet()) {
+                    sb.append("    ").append(update.getKey()).append(": ").append(asText(update.getValue())).append('\n');
+                }
+            }
+        }
+        sb.append("description:\n").append(event.get("description")).append('\n');
+        return sb.toString();
+    }
+
+    private static String asText(Object value) {
+        if (value instanceof Double && (Double) value == Math.rint((Double) value)) {
+            return String.valueOf(((Double) value).longValue());
+        }
+        return String.valueOf(value);
+    }
+}
@@ -0,0 +1,60 @@
+package bgu.spl.net.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A STOMP server started by a tool for its run, with the classpath of the tool
+ */
+final class ServerProcess implements AutoCloseable {
+
+    private final Process process;
+
+    private ServerProcess(Process process) {
+        this.process = process;
+    }
+
+    /**
+     * Start a server and wait until it listens on the port, its output goes to a log file
+     * @param type tpc or reactor
+     * @param args the StompServer arguments after the port and type
+     */
+    static ServerProcess start(String host, int port, String type, String... args) throws IOException, InterruptedException {
+        File log = File.createTempFile("stomp-server", ".log");
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> command = new ArrayList<>(Arrays.asList(java, "-cp", System.getProperty("java.class.path"),
+                "bgu.spl.net.impl.stomp.StompServer", String.valueOf(port), type));
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log)
+                .start();
+        System.out.println("Started a " + type + " server, its output is in " + log);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (System.nanoTime() < deadline) {
+            try {
+                new Socket(host, port).close();
+                return new ServerProcess(process);
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        process.destroy();
+        throw new IOException("The server did not start listening on port " + port);
+    }
+
+    @Override
+    public void close() {
+        process.destroy();
+        try {
+            process.waitFor(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package bgu.spl.net.tools;
+
+import bgu.spl.net.impl.stomp.StompFrame;
+import bgu.spl.net.impl.stomp.StompFrameEncoderDecoder;
+import bgu.spl.net.metrics.Histogram;
+import bgu.spl.net.metrics.MetricsRegistry;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Closed-loop load test of a STOMP server.
+ *
+ * Subscribers are spread over a number of game channels and read by a few selector threads, so thousands of
+ * connections need no thread each. Publishers replay the events of a game file as SENDs with a receipt, each
+ * waiting for the receipt of its previous SEND before the next one, paced to the configured total rate.
+ * Every SEND carries its send time in the user field of the report, subscribers measure the publish to
+ * deliver latency from it. After the run the throughput, latency percentiles and errors are printed.
+ *
+ * Usage: java -cp target/benchmarks.jar bgu.spl.net.tools.StompLoadGenerator [--option value]...
+ * <pre>
+ * --host localhost      server to load
+ * --port 7777
+ * --start tpc|reactor   start a server of this type on the port for the run (default: use a running server)
+ * --subscribers 1000    subscriber connections
+ * --publishers 10       publisher connections
+ * --channels 10         game channels the subscribers are spread over
+ * --rate 1000           SENDs per second, over all publishers
+ * --duration 30         seconds of measured load
+ * --warmup 5            seconds of load before measuring
+ * --readers 4           selector threads reading the subscribers
+ * --events client/data/events1.json
+ * </pre>
+ */
+public class StompLoadGenerator {
+
+    private final Map<String, String> options;
+    private final String host;
+    private final int port;
+
+    private final AtomicBoolean running = new AtomicBoolean(true);
+    private volatile boolean measuring = false;
+
+    private final Histogram deliverLatency = MetricsRegistry.getInstance().histogram("load.deliver.ns");
+    private final Histogram receiptLatency = MetricsRegistry.getInstance().histogram("load.receipt.ns");
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong expected = new AtomicLong();
+    private final AtomicLong subscribed = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong receiptTimeouts = new AtomicLong();
+
+    private int[] subscribersPerChannel;
+
+    public StompLoadGenerator(Map<String, String> options) {
+        this.options = options;
+        this.host = option("host", "localhost");
+        this.port = Integer.parseInt(option("port", "7777"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                System.err.println("Expected an option, got " + args[i]);
+                return;
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        new StompLoadGenerator(options).run();
+    }
+
+    private String option(String name, String defaultValue) {
+        return options.getOrDefault(name, defaultValue);
+    }
+
+    private int intOption(String name, int defaultValue) {
+        return Integer.parseInt(option(name, String.valueOf(defaultValue)));
+    }
+
+    public void run() throws Exception {
+        int subscribers = intOption("subscribers", 1000);
+        int publishers = intOption("publishers", 10);
+        int channels = intOption("channels", 10);
+        int rate = intOption("rate", 1000);
+        int duration = intOption("duration", 30);
+        int warmup = intOption("warmup", 5);
+        int readerCount = intOption("readers", 4);
+        GameEvents game = GameEvents.read(option("events", "client/data/events1.json"));
+
+        ServerProcess server = options.containsKey("start") ? ServerProcess.start(host, port, option("start", "tpc")) : null;
+        try {
+            List<String> channelNames = new ArrayList<>();
+            for (int i = 0; i < channels; i++) {
+                channelNames.add(i == 0 ? game.channel() : game.channel() + "_" + i);
+            }
+
+            // subscribers, round robin over channels and reader threads
+            System.out.println("Connecting " + subscribers + " subscribers over " + channels + " channels...");
+            subscribersPerChannel = new int[channels];
+            List<Reader> readers = new ArrayList<>();
+            for (int i = 0; i < readerCount; i++) {
+                readers.add(new Reader(i));
+            }
+            for (int i = 0; i < subscribers; i++) {
+                int channel = i % channels;
+                subscribersPerChannel[channel]++;
+                readers.get(i % readerCount).add(openSubscriber(i, channelNames.get(channel)));
+            }
+            for (Reader reader : readers) {
+                reader.start();
+            }
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+            while (subscribed.get() < subscribers && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+            if (subscribed.get() < subscribers) {
+                System.out.println("Only " + subscribed.get() + " subscriptions were confirmed, continuing");
+            }
+
+            System.out.println("Publishing " + rate + " SENDs/s from " + publishers + " publishers...");
+            List<Publisher> publisherThreads = new ArrayList<>();
+            double interval = (double) publishers / rate; // seconds between SENDs of one publisher
+            for (int i = 0; i < publishers; i++) {
+                String channel = channelNames.get(i % channels);
+                Publisher publisher = new Publisher(i, channel, i % channels, game.bodies("publisher" + i),
+                        (long) (interval * 1e9));
+                publisherThreads.add(publisher);
+                publisher.start();
+            }
+
+            Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+            long sentBefore = sent.get();
+            long deliveredBefore = delivered.get();
+            long expectedBefore = expected.get();
+            long start = System.nanoTime();
+            measuring = true;
+            Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+            measuring = false;
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long measuredSent = sent.get() - sentBefore;
+
+            running.set(false);
+            for (Publisher publisher : publisherThreads) {
+                publisher.join(5000);
+            }
+            // let the last deliveries arrive
+            Thread.sleep(500);
+            long measuredDelivered = delivered.get() - deliveredBefore;
+            long measuredExpected = expected.get() - expectedBefore;
+            for (Reader reader : readers) {
+                reader.shutdown();
+            }
+
+            System.out.println();
+            System.out.printf("Mode:        %s%n", option("start", "running server"));
+            System.out.printf("Connections: %d subscribers, %d publishers, %d channels%n", subscribers, publishers, channels);
+            System.out.printf("Throughput:  %.0f SENDs/s (target %d), %.0f MESSAGEs/s delivered%n",
+                    measuredSent / seconds, rate, measuredDelivered / seconds);
+            System.out.printf("Deliveries:  %d of %d expected%n", measuredDelivered, measuredExpected);
+            printLatency("Publish to deliver", deliverLatency);
+            printLatency("Publish to receipt", receiptLatency);
+            System.out.printf("Errors:      %d ERROR frames or IO errors, %d receipt timeouts%n", errors.get(), receiptTimeouts.get());
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    private static void printLatency(String name, Histogram histogram) {
+        System.out.printf("%-19s p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms (%d samples)%n", name + ":",
+                histogram.getP50() / 1e6, histogram.getP99() / 1e6, histogram.getP999() / 1e6,
+                histogram.getMax() / 1e6, histogram.getCount());
+    }
+
+    private static byte[] frame(String command, String body, String... headers) {
+        StompFrame frame = new StompFrame(command);
+        for (int i = 0; i < headers.length; i += 2) {
+            frame.addHeader(headers[i], headers[i + 1]);
+        }
+        frame.setBody(body);
+        return new StompFrameEncoderDecoder().encode(frame);
+    }
+
+    private static byte[] connectFrame(String login) {
+        return frame("CONNECT", "", "accept-version", "1.2", "host", "stomp.cs.bgu.ac.il",
+                "login", login, "passcode", "load");
+    }
+
+    private SocketChannel openSubscriber(int index, String channel) throws IOException {
+        SocketChannel chan = SocketChannel.open(new InetSocketAddress(host, port));
+        chan.write(ByteBuffer.wrap(connectFrame("subscriber" + index)));
+        chan.write(ByteBuffer.wrap(frame("SUBSCRIBE", "", "destination", channel, "id", "1", "receipt", "subscribed")));
+        chan.configureBlocking(false);
+        return chan;
+    }
+
+    /**
+     * Reads the frames of a share of the subscribers
+     */
+    private class Reader extends Thread {
+        private final Selector selector;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+
+        Reader(int index) throws IOException {
+            super("load-reader-" + index);
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        void add(SocketChannel chan) throws IOException {
+            chan.register(selector, SelectionKey.OP_READ, new StompFrameEncoderDecoder());
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isInterrupted()) {
+                    selector.select(100);
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        read(key);
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                errors.incrementAndGet();
+            }
+        }
+
+        private void read(SelectionKey key) {
+            SocketChannel chan = (SocketChannel) key.channel();
+            StompFrameEncoderDecoder decoder = (StompFrameEncoderDecoder) key.attachment();
+            buffer.clear();
+            try {
+                if (chan.read(buffer) < 0) {
+                    key.cancel();
+                    chan.close();
+                    if (running.get()) {
+                        errors.incrementAndGet();
+                    }
+                    return;
+                }
+            } catch (IOException e) {
+                key.cancel();
+                errors.incrementAndGet();
+                return;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                StompFrame frame = decoder.decodeNextByte(buffer.get());
+                if (frame != null) {
+                    received(frame);
+                }
+            }
+        }
+
+        private void received(StompFrame frame) {
+            String command = frame.getCommand();
+            if ("MESSAGE".equals(command)) {
+                long sentAt = sendTime(frame);
+                delivered.incrementAndGet();
+                if (measuring && sentAt > 0) {
+                    deliverLatency.record(System.nanoTime() - sentAt);
+                }
+            } else if ("RECEIPT".equals(command)) {
+                subscribed.incrementAndGet();
+            } else if ("ERROR".equals(command) || frame.getDecodeError() != null) {
+                errors.incrementAndGet();
+            }
+        }
+
+        void shutdown() throws IOException, InterruptedException {
+            interrupt();
+            selector.wakeup();
+            join();
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            selector.close();
+        }
+    }
+
+    /**
+     * @return the send time publishers put in the user field ("user: publisher3@&lt;nanos&gt;"), 0 if there is none
+     */
+    private static long sendTime(StompFrame frame) {
+        byte[] body = frame.bodyArray();
+        int end = frame.bodyOffset() + frame.bodyLength();
+        int pos = frame.bodyOffset();
+        while (pos < end && body[pos] != '@' && body[pos] != '\n') {
+            pos++;
+        }
+        if (pos == end || body[pos] != '@') {
+            return 0;
+        }
+        long value = 0;
+        for (pos++; pos < end && body[pos] >= '0' && body[pos] <= '9'; pos++) {
+            value = value * 10 + (body[pos] - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Sends the game's events to one channel in a closed loop, one SEND at a time
+     */
+    private class Publisher extends Thread {
+        private final int index;
+        private final String channel;
+        private final int channelIndex;
+        private final List<String> bodies;
+        private final long intervalNanos;
+
+        Publisher(int index, String channel, int channelIndex, List<String> bodies, long intervalNanos) {
+            super("load-publisher-" + index);
+            setDaemon(true);
+            this.index = index;
+            this.channel = channel;
+            this.channelIndex = channelIndex;
+            this.bodies = bodies;
+            this.intervalNanos = intervalNanos;
+        }
+
+        @Override
+        public void run() {
+            try (Socket sock = new Socket(host, port)) {
+                sock.setTcpNoDelay(true);
+                sock.setSoTimeout(5000);
+                OutputStream out = sock.getOutputStream();
+                InputStream in = new BufferedInputStream(sock.getInputStream());
+                StompFrameEncoderDecoder decoder = new StompFrameEncoderDecoder();
+                out.write(connectFrame("publisher" + index));
+                if (!"CONNECTED".equals(readCommand(in, decoder))) {
+                    errors.incrementAndGet();
+                    return;
+                }
+
+                long next = System.nanoTime();
+                for (long n = 0; running.get(); n++) {
+                    long wait = next - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    } else if (-wait > intervalNanos) {
+                        // fell behind waiting for a receipt, skip the missed sends instead of bursting them
+                        next -= wait;
+                    }
+                    next += intervalNanos;
+
+                    String body = bodies.get((int) (n % bodies.size()));
+                    long sentAt = System.nanoTime();
+                    // the send time goes after the user name, subscribers read it from there
+                    body = body.replaceFirst("\n", "@" + sentAt + "\n");
+                    out.write(frame("SEND", body, "destination", channel, "receipt", String.valueOf(n)));
+                    sent.incrementAndGet();
+                    expected.addAndGet(subscribersPerChannel[channelIndex]);
+
+                    try {
+                        String reply = readCommand(in, decoder);
+                        if (!"RECEIPT".equals(reply)) {
+                            errors.incrementAndGet();
+                            return;
+                        }
+                        if (measuring) {
+                            receiptLatency.record(System.nanoTime() - sentAt);
+                        }
+                    } catch (java.net.SocketTimeoutException e) {
+                        receiptTimeouts.incrementAndGet();
+                    }
+                }
+                out.write(frame("DISCONNECT", "", "receipt", "bye"));
+            } catch (IOException e) {
+                if (running.get()) {
+                    errors.incrementAndGet();
+                }
+            }
+        }
+
+        private String readCommand(InputStream in, StompFrameEncoderDecoder decoder) throws IOException {
+            int read;
+            while ((read = in.read()) >= 0) {
+                StompFrame frame = decoder.decodeNextByte((byte) read);
+                if (frame != null) {
+                    return frame.getDecodeError() != null ? "MALFORMED" : frame.getCommand();
+                }
+            }
+            throw new IOException("Connection closed");
+        }
+    }
+}
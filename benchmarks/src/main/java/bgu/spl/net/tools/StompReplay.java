@@ -0,0 +1,355 @@
+package bgu.spl.net.tools;
+
+import bgu.spl.net.api.MessageEncoderDecoder;
+import bgu.spl.net.impl.stomp.StompBinaryEncoderDecoder;
+import bgu.spl.net.impl.stomp.StompFrame;
+import bgu.spl.net.impl.stomp.StompFrameEncoderDecoder;
+import bgu.spl.net.metrics.Histogram;
+import bgu.spl.net.metrics.MetricsRegistry;
+import bgu.spl.net.srv.TrafficCapture;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a capture of client traffic, recorded by a server run with -Dstomp.capture=file, against a server.
+ *
+ * Every captured connection is opened again and sent the same bytes, in the captured order over all connections.
+ * At a speed of 1 the bytes are sent at their captured times, at max as fast as the server takes them.
+ * A captured close waits until the receipts asked for before it were received, so a replay running ahead of
+ * the server still closes connections after the replies they were waiting for, as in the capture.
+ * The latency from sending a frame with a receipt to its RECEIPT is measured, and the replies are counted.
+ *
+ * Usage: java -cp target/benchmarks.jar bgu.spl.net.tools.StompReplay --file capture.bin [--option value]...
+ * <pre>
+ * --host localhost
+ * --port 7777           port of the connections captured on a text port (default: the captured port)
+ * --binary-port 7778    port of the connections captured on a binary port (default: the captured port)
+ * --speed 1             replay speed relative to the capture, or max
+ * --start tpc|reactor   start a server of this type on the ports for the run (default: use a running server)
+ * --drain 5             seconds to wait for a receipt before counting it as missing
+ * </pre>
+ */
+public class StompReplay {
+
+    private static final String BINARY_DECODER = StompBinaryEncoderDecoder.class.getSimpleName();
+
+    private final Map<String, String> options;
+    private final String host;
+
+    private final Histogram receiptLatency = MetricsRegistry.getInstance().histogram("replay.receipt.ns");
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicInteger open = new AtomicInteger();
+    private long framesSent = 0;
+    private long bytesSent = 0;
+    private long maxLag = 0;
+
+    public StompReplay(Map<String, String> options) {
+        this.options = options;
+        this.host = options.getOrDefault("host", "localhost");
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                System.err.println("Expected an option, got " + args[i]);
+                return;
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        if (!options.containsKey("file")) {
+            System.err.println("Usage: StompReplay --file <capture> [--host h] [--port p] [--binary-port p] [--speed 1|max] [--start tpc|reactor]");
+            return;
+        }
+        new StompReplay(options).run();
+    }
+
+    public void run() throws Exception {
+        String speedOption = options.getOrDefault("speed", "1");
+        double speed = "max".equalsIgnoreCase(speedOption) ? 0 : Double.parseDouble(speedOption);
+        long drainNanos = TimeUnit.SECONDS.toNanos(Integer.parseInt(options.getOrDefault("drain", "5")));
+
+        ServerProcess server = null;
+        if (options.containsKey("start")) {
+            String port = options.getOrDefault("port", "7777");
+            server = options.containsKey("binary-port")
+                    ? ServerProcess.start(host, Integer.parseInt(port), options.get("start"),
+                            String.valueOf(StompFrameEncoderDecoder.DEFAULT_MAX_FRAME_SIZE), options.get("binary-port"))
+                    : ServerProcess.start(host, Integer.parseInt(port), options.get("start"));
+        }
+        Reader reader = new Reader();
+        reader.start();
+        try (TrafficCapture.Reader capture = new TrafficCapture.Reader(options.get("file"))) {
+            Map<Integer, Connection> connections = new HashMap<>();
+            List<Connection> all = new ArrayList<>();
+            long start = System.nanoTime();
+            long capturedTime = 0;
+            while (capture.next()) {
+                capturedTime = capture.time;
+                if (speed > 0) {
+                    long due = start + (long) (TimeUnit.MICROSECONDS.toNanos(capture.time) / speed);
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    } else {
+                        maxLag = Math.max(maxLag, -wait);
+                    }
+                }
+                switch (capture.type) {
+                    case TrafficCapture.OPEN:
+                        Connection opened = connect(capture.port, capture.decoder, reader);
+                        connections.put(capture.connection, opened);
+                        all.add(opened);
+                        break;
+                    case TrafficCapture.DATA:
+                        Connection connection = connections.get(capture.connection);
+                        if (connection != null) {
+                            connection.send(capture.data, capture.length);
+                        }
+                        break;
+                    case TrafficCapture.CLOSE:
+                        Connection closed = connections.remove(capture.connection);
+                        if (closed != null) {
+                            // when the client closed, what was sent before had been answered, a replay running
+                            // ahead of the server would otherwise close subscribers before their messages came
+                            awaitReceipts(all, drainNanos);
+                            closed.finish();
+                        }
+                        break;
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            // let the server answer what was sent and close the connections that were closed
+            long deadline = System.nanoTime() + drainNanos;
+            awaitReceipts(all, drainNanos);
+            while (open.get() > connections.size() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            reader.shutdown();
+            long missing = pendingReceipts(all);
+
+            System.out.println();
+            System.out.printf("Capture:     %.3f s of traffic, replayed at %s%n", capturedTime / 1e6,
+                    speed > 0 ? speedOption + "x" : "max speed");
+            System.out.printf("Replay:      %.3f s, %d frames (%.0f frames/s), %d bytes (%.2f MB/s)%n", seconds,
+                    framesSent, framesSent / seconds, bytesSent, bytesSent / seconds / 1e6);
+            if (speed > 0) {
+                System.out.printf("Schedule:    at most %.3f ms behind the capture%n", maxLag / 1e6);
+            }
+            System.out.printf("Receipts:    p50 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms (%d receipts, %d missing)%n",
+                    receiptLatency.getP50() / 1e6, receiptLatency.getP99() / 1e6, receiptLatency.getP999() / 1e6,
+                    receiptLatency.getMax() / 1e6, receiptLatency.getCount(), missing);
+            System.out.printf("Replies:     %d MESSAGE frames, %d ERROR frames or IO errors%n", messages.get(), errors.get());
+        } finally {
+            reader.shutdown();
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    /**
+     * Wait until all receipts asked for were received, receipts waited for longer than maxWaitNanos count as lost
+     */
+    private static void awaitReceipts(List<Connection> connections, long maxWaitNanos) throws InterruptedException {
+        while (waitingForReceipt(connections, System.nanoTime() - maxWaitNanos)) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static boolean waitingForReceipt(List<Connection> connections, long sentAfter) {
+        for (Connection connection : connections) {
+            for (long sentAt : connection.pendingReceipts.values()) {
+                if (sentAt - sentAfter > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static long pendingReceipts(List<Connection> connections) {
+        long pending = 0;
+        for (Connection connection : connections) {
+            pending += connection.pendingReceipts.size();
+        }
+        return pending;
+    }
+
+    private Connection connect(int capturedPort, String decoder, Reader reader) throws IOException {
+        boolean binary = BINARY_DECODER.equals(decoder);
+        String portOption = options.get(binary ? "binary-port" : "port");
+        int port = portOption != null ? Integer.parseInt(portOption) : capturedPort;
+        SocketChannel chan = SocketChannel.open(new InetSocketAddress(host, port));
+        chan.configureBlocking(false);
+        Connection connection = new Connection(chan, binary);
+        open.incrementAndGet();
+        reader.add(connection);
+        return connection;
+    }
+
+    private static MessageEncoderDecoder<StompFrame> decoder(boolean binary) {
+        return binary ? new StompBinaryEncoderDecoder() : new StompFrameEncoderDecoder();
+    }
+
+    /**
+     * A replayed connection. The bytes sent are decoded as well to find the frames asking for receipts.
+     */
+    private class Connection {
+        private final SocketChannel chan;
+        private final MessageEncoderDecoder<StompFrame> outDecoder;
+        private final MessageEncoderDecoder<StompFrame> inDecoder;
+        // send times of the frames waiting for their receipt, by receipt id
+        private final Map<String, Long> pendingReceipts = new ConcurrentHashMap<>();
+
+        Connection(SocketChannel chan, boolean binary) {
+            this.chan = chan;
+            this.outDecoder = decoder(binary);
+            this.inDecoder = decoder(binary);
+        }
+
+        void send(byte[] data, int length) throws IOException {
+            long now = System.nanoTime();
+            for (int i = 0; i < length; i++) {
+                StompFrame frame = outDecoder.decodeNextByte(data[i]);
+                if (frame != null) {
+                    framesSent++;
+                    String receipt = frame.getHeader("receipt");
+                    if (receipt != null) {
+                        pendingReceipts.put(receipt, now);
+                    }
+                }
+            }
+            ByteBuffer buf = ByteBuffer.wrap(data, 0, length);
+            while (buf.hasRemaining()) {
+                if (chan.write(buf) == 0) {
+                    Thread.yield(); // the server is not reading, wait for room in the socket buffer
+                }
+            }
+            bytesSent += length;
+        }
+
+        /**
+         * The client closed here. The connection is only closed for sending, the server still gets to send
+         * the rest of its replies.
+         */
+        void finish() {
+            try {
+                if (chan.isOpen()) {
+                    chan.shutdownOutput();
+                }
+            } catch (IOException e) {
+                // already closed by the server
+            }
+        }
+
+        void received(StompFrame frame) {
+            String command = frame.getCommand();
+            if ("MESSAGE".equals(command)) {
+                messages.incrementAndGet();
+            } else if ("RECEIPT".equals(command)) {
+                Long sentAt = pendingReceipts.remove(frame.getHeader("receipt-id"));
+                if (sentAt != null) {
+                    receiptLatency.record(System.nanoTime() - sentAt);
+                }
+            } else if ("ERROR".equals(command) || frame.getDecodeError() != null) {
+                errors.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Reads the replies of all connections on one selector
+     */
+    private class Reader extends Thread {
+        private final Selector selector;
+        private final Queue<Connection> added = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+
+        Reader() throws IOException {
+            super("replay-reader");
+            setDaemon(true);
+            selector = Selector.open();
+        }
+
+        /**
+         * Registration waits for a running select, so connections are registered by the reader itself
+         */
+        void add(Connection connection) {
+            added.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!isInterrupted()) {
+                    selector.select(100);
+                    for (Connection connection; (connection = added.poll()) != null; ) {
+                        connection.chan.register(selector, SelectionKey.OP_READ, connection);
+                    }
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        read(key);
+                    }
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                errors.incrementAndGet();
+            }
+        }
+
+        private void read(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            buffer.clear();
+            try {
+                if (connection.chan.read(buffer) < 0) {
+                    key.cancel();
+                    connection.chan.close();
+                    open.decrementAndGet();
+                    return;
+                }
+            } catch (IOException e) {
+                key.cancel();
+                open.decrementAndGet();
+                errors.incrementAndGet();
+                return;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                StompFrame frame = connection.inDecoder.decodeNextByte(buffer.get());
+                if (frame != null) {
+                    connection.received(frame);
+                }
+            }
+        }
+
+        void shutdown() throws IOException, InterruptedException {
+            if (!isAlive()) {
+                return;
+            }
+            interrupt();
+            selector.wakeup();
+            join();
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+        }
+    }
+}
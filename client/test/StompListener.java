@@ -1,10 +1,13 @@
 import java.io.*;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
  * Passive Listener Client.
  * Subscribes to a channel and stays open to receive all incoming MESSAGE frames.
+ * Asks for deflated bodies, large reports arrive compressed and are inflated before printing.
  */
 public class StompListener {
     public static void main(String[] args) {
@@ -13,7 +16,7 @@ public class StompListener {
              InputStream in = socket.getInputStream()) {
 
             // 1. Connect and Subscribe
-            sendFrame(out, "CONNECT\naccept-version:1.2\nhost:stomp.cs.bgu.ac.il\nlogin:listener_user\npasscode:123\n\n");
+            sendFrame(out, "CONNECT\naccept-version:1.2\nhost:stomp.cs.bgu.ac.il\nlogin:listener_user\npasscode:123\naccept-encoding:deflate\n\n");
             readFrame(in); 
             
             sendFrame(out, "SUBSCRIBE\ndestination:/usa_canada\nid:sub10\n\n");
@@ -38,13 +41,74 @@ public class StompListener {
         out.flush();
     }
 
+    /**
+     * Read one frame. Bodies with a content-length header are read by length, as they may hold
+     * null bytes, and bodies with "content-encoding:deflate" are inflated.
+     */
     private static String readFrame(InputStream in) throws IOException {
-        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        // command and headers, up to the empty line
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
         int ch;
-        while ((ch = in.read()) != 0) {
+        int last = -1;
+        while (true) {
+            ch = in.read();
             if (ch == -1) return null;
-            buffer.write(ch);
+            if (ch == '\r') continue;
+            if (ch == '\n' && head.size() == 0) continue; // heart-beat
+            if (ch == 0) return head.toString(StandardCharsets.UTF_8.name());
+            head.write(ch);
+            if (ch == '\n' && last == '\n') break;
+            last = ch;
         }
-        return buffer.toString(StandardCharsets.UTF_8.name());
+        String headers = head.toString(StandardCharsets.UTF_8.name());
+
+        int contentLength = -1;
+        boolean deflated = false;
+        for (String line : headers.split("\n")) {
+            if (line.startsWith("content-length:")) {
+                contentLength = Integer.parseInt(line.substring("content-length:".length()).trim());
+            } else if (line.equals("content-encoding:deflate")) {
+                deflated = true;
+            }
+        }
+
+        byte[] body;
+        if (contentLength >= 0) {
+            body = new byte[contentLength];
+            new DataInputStream(in).readFully(body);
+            in.read(); // null terminator
+        } else {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            while ((ch = in.read()) != 0) {
+                if (ch == -1) return null;
+                buffer.write(ch);
+            }
+            body = buffer.toByteArray();
+        }
+        if (deflated) {
+            body = inflate(body);
+        }
+        return headers + new String(body, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] inflate(byte[] compressed) throws IOException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(compressed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+        byte[] chunk = new byte[4096];
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(chunk);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated deflate body");
+                }
+                out.write(chunk, 0, n);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt deflate body", e);
+        } finally {
+            inflater.end();
+        }
+        return out.toByteArray();
     }
 }
\ No newline at end of file
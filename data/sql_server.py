@@ -11,22 +11,49 @@ DB_FILE = "stomp_server.db"              # DO NOT CHANGE!
 # Global database lock for thread safety 
 db_lock = threading.Lock()
 
-def recv_null_terminated(sock: socket.socket) -> str:
-    """Reads data from socket until a null character is found """
-    data = b""
+# The connection all clients run their statements on, opened once by init_database and guarded by db_lock.
+# WAL journaling with synchronous=NORMAL makes a commit an append to the log instead of an fsync of the database.
+db_conn = None
+
+# A message starting with this prefix is a batch of statements run in one transaction:
+#   BATCH <count>\n<length>\n<statement><length>\n<statement>...
+# lengths count the characters (code points) of the statement. The reply has the same form, holding the result
+# of each statement in order.
+BATCH_PREFIX = "BATCH "
+
+# Parameterized statements. A client first prepares the statements it runs, each under an id of its connection:
+#   PREPARE <id>\n<sql>
+# and then runs them by id, alone or as an item of a batch, with typed parameters bound to the '?' of the SQL:
+#   EXEC <id> <count>\n<parameter>...
+# a parameter is s<length>\n<string> (length in characters), i<value>\n or n\n for null.
+# The SQL of a prepared statement is the same text for every run, sqlite3 keeps it compiled in the statement
+# cache of db_conn so it is parsed once.
+PREPARE_PREFIX = "PREPARE "
+EXEC_PREFIX = "EXEC "
+
+def recv_null_terminated(sock: socket.socket, buffer: bytearray) -> str:
+    """Reads data from socket until a null character is found.
+    Clients pipeline statements on one connection, so what was read after the null character
+    is kept in the connection's buffer for the next call."""
     while True:
-        chunk = sock.recv(1024)
+        end = buffer.find(b"\0")
+        if end >= 0:
+            msg = bytes(buffer[:end])
+            del buffer[:end + 1]
+            return msg.decode("utf-8", errors="replace")
+        chunk = sock.recv(4096)
         if not chunk:
             return ""
-        data += chunk
-        if b"\0" in data:
-            msg, _ = data.split(b"\0", 1)
-            return msg.decode("utf-8", errors="replace")
+        buffer += chunk
 
 def init_database():
     """Initialize SQLite database with required tables according to Database.java """
+    global db_conn
     with db_lock:
-        conn = sqlite3.connect(DB_FILE)
+        # autocommit, transactions are begun and committed explicitly
+        conn = sqlite3.connect(DB_FILE, timeout=30.0, isolation_level=None, check_same_thread=False)
+        conn.execute("PRAGMA journal_mode=WAL")
+        conn.execute("PRAGMA synchronous=NORMAL")
         cursor = conn.cursor()
         
         # 1. Users table: stores registration info [cite: 12, 15]
@@ -61,56 +88,177 @@ def init_database():
             )
         """)
         
-        conn.commit()
-        conn.close()
+        db_conn = conn
         print(f"[{SERVER_NAME}] Database initialized: {DB_FILE}")
 
+def format_rows(rows) -> str:
+    """Format: SUCCESS|str(row1)|str(row2)... as expected by Database.java """
+    result_parts = ["SUCCESS"]
+    for row in rows:
+        result_parts.append(str(row))
+    return "|".join(result_parts)
+
+def rollback():
+    if db_conn.in_transaction:
+        db_conn.rollback()
+
 def execute_sql_command(sql_command: str) -> str:
-    """Executes INSERT or UPDATE commands and returns 'done' as per PDF [cite: 12, 15]"""
+    """Executes INSERT or UPDATE commands and returns 'done' as per PDF [cite: 12, 15]
+    The command may hold several statements separated by ';'"""
     with db_lock:
-        conn = None
         try:
-            conn = sqlite3.connect(DB_FILE, timeout=30.0)
-            cursor = conn.cursor()                    
-            cursor.execute(sql_command)
-            conn.commit()
+            db_conn.executescript(sql_command)
             return "done"
         except sqlite3.Error as e:
-            if conn: conn.rollback()
+            rollback()
             return f"ERROR:{e}"
-        finally:
-            if conn: conn.close()
 
 def execute_sql_query(sql_query: str) -> str:
     """Executes SELECT and returns formatted results for printReport() in Java """
     with db_lock:
-        conn = None
         try:
-            conn = sqlite3.connect(DB_FILE, timeout=30.0)
-            cursor = conn.cursor()
-            cursor.execute(sql_query)
-            rows = cursor.fetchall()
-            
-            # Format: SUCCESS|str(row1)|str(row2)... as expected by Database.java 
-            if rows:
-                result_parts = ["SUCCESS"]
-                for row in rows:
-                    result_parts.append(str(row))
-                return "|".join(result_parts)
-            else:
-                return "SUCCESS"
+            return format_rows(db_conn.execute(sql_query).fetchall())
         except sqlite3.Error as e:
             return f"ERROR:{e}"
+
+def run_statement(statement: str, prepared: dict) -> str:
+    """Runs an SQL statement or the EXEC of a prepared one, within the caller's transaction"""
+    if statement.startswith(EXEC_PREFIX):
+        sql, params = parse_exec(statement, prepared)
+    else:
+        sql, params = statement, ()
+    cursor = db_conn.execute(sql, params)
+    if sql.strip().upper().startswith("SELECT"):
+        return format_rows(cursor.fetchall())
+    return "done"
+
+def execute_prepared(statement: str, prepared: dict) -> str:
+    """Executes the EXEC of a prepared statement in its own transaction"""
+    with db_lock:
+        try:
+            db_conn.execute("BEGIN")
+            result = run_statement(statement, prepared)
+            db_conn.execute("COMMIT")
+            return result
+        except sqlite3.Error as e:
+            return f"ERROR:{e}"
+        except ValueError as e:
+            return f"ERROR:Malformed statement: {e}"
+        finally:
+            # nothing may leave the shared connection inside a transaction, not even an unexpected error
+            rollback()
+
+def execute_batch(statements: list, prepared: dict) -> list:
+    """Executes the statements of a batch in one transaction and returns the result of each.
+    A failing statement is rolled back alone, to its savepoint, the others are committed."""
+    with db_lock:
+        results = []
+        try:
+            db_conn.execute("BEGIN")
+            for statement in statements:
+                db_conn.execute("SAVEPOINT statement")
+                try:
+                    results.append(run_statement(statement, prepared))
+                except sqlite3.Error as e:
+                    db_conn.execute("ROLLBACK TO statement")
+                    results.append(f"ERROR:{e}")
+                except ValueError as e:
+                    db_conn.execute("ROLLBACK TO statement")
+                    results.append(f"ERROR:Malformed statement: {e}")
+                db_conn.execute("RELEASE statement")
+            db_conn.execute("COMMIT")
+            return results
+        except sqlite3.Error as e:
+            return [f"ERROR:{e}"] * len(statements)
         finally:
-            if conn: conn.close()
+            rollback()
+
+def parse_batch(message: str) -> list:
+    """Splits a batch message into its statements, raises ValueError if it is malformed"""
+    header_end = message.index("\n")
+    count = int(message[len(BATCH_PREFIX):header_end])
+    statements = []
+    pos = header_end + 1
+    for _ in range(count):
+        length_end = message.index("\n", pos)
+        length = int(message[pos:length_end])
+        start = length_end + 1
+        if start + length > len(message):
+            raise ValueError("statement longer than the message")
+        statements.append(message[start:start + length])
+        pos = start + length
+    if pos != len(message):
+        raise ValueError("data after the last statement")
+    return statements
+
+def parse_exec(statement: str, prepared: dict):
+    """Resolves the EXEC of a prepared statement to its SQL and parameters, raises ValueError if it is malformed"""
+    header_end = statement.index("\n")
+    statement_id, count = statement[len(EXEC_PREFIX):header_end].split(" ")
+    sql = prepared.get(int(statement_id))
+    if sql is None:
+        raise ValueError(f"statement {statement_id} is not prepared")
+    params = []
+    pos = header_end + 1
+    for _ in range(int(count)):
+        if pos >= len(statement):
+            raise ValueError("fewer parameters than announced")
+        kind = statement[pos]
+        value_end = statement.index("\n", pos)
+        if kind == "s":
+            length = int(statement[pos + 1:value_end])
+            start = value_end + 1
+            if start + length > len(statement):
+                raise ValueError("parameter longer than the statement")
+            params.append(statement[start:start + length])
+            pos = start + length
+        elif kind == "i":
+            params.append(int(statement[pos + 1:value_end]))
+            pos = value_end + 1
+        elif kind == "n":
+            params.append(None)
+            pos = value_end + 1
+        else:
+            raise ValueError(f"unknown parameter type {kind}")
+    if pos != len(statement):
+        raise ValueError("data after the last parameter")
+    return sql, params
+
+def format_batch(results: list) -> str:
+    return BATCH_PREFIX + str(len(results)) + "\n" + "".join(f"{len(r)}\n{r}" for r in results)
 
 def handle_client(client_socket: socket.socket, addr):
     """Processes incoming SQL strings from the Java server """
+    buffer = bytearray()
+    # the statements prepared on this connection, by id
+    prepared = {}
     try:
         while True:
-            message = recv_null_terminated(client_socket)
+            message = recv_null_terminated(client_socket, buffer)
             if not message: break
 
+            if message.startswith(BATCH_PREFIX):
+                try:
+                    statements = parse_batch(message)
+                    print(f"[{SERVER_NAME}] Executing batch of {len(statements)} statements")
+                    response = format_batch(execute_batch(statements, prepared))
+                except ValueError as e:
+                    response = f"ERROR:Malformed batch: {e}"
+                client_socket.sendall(response.encode('utf-8') + b"\0")
+                continue
+            if message.startswith(PREPARE_PREFIX):
+                try:
+                    header_end = message.index("\n")
+                    prepared[int(message[len(PREPARE_PREFIX):header_end])] = message[header_end + 1:]
+                    response = "done"
+                except ValueError as e:
+                    response = f"ERROR:Malformed prepare: {e}"
+                client_socket.sendall(response.encode('utf-8') + b"\0")
+                continue
+            if message.startswith(EXEC_PREFIX):
+                client_socket.sendall(execute_prepared(message, prepared).encode('utf-8') + b"\0")
+                continue
+
             print(f"[{SERVER_NAME}] Executing SQL: {message}")
 
             # Routing based on SQL command type 
@@ -1,5 +1,7 @@
 package bgu.spl.net.api;
 
+import java.nio.ByteBuffer;
+
 public interface MessageEncoderDecoder<T> {
 
     /**
@@ -19,4 +21,21 @@ public interface MessageEncoderDecoder<T> {
      */
     byte[] encode(T message);
 
+    /**
+     * encodes the given message directly into the given buffer, starting at its position
+     *
+     * @param message the message to encode
+     * @param out the buffer to write to
+     * @return true if the whole message was written, false if it does not fit
+     * in the remaining space (the buffer position is then left unchanged)
+     */
+    default boolean encode(T message, ByteBuffer out) {
+        byte[] bytes = encode(message);
+        if (bytes.length > out.remaining()) {
+            return false;
+        }
+        out.put(bytes);
+        return true;
+    }
+
 }
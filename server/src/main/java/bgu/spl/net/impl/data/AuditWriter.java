@@ -0,0 +1,170 @@
+package bgu.spl.net.impl.data;
+
+import bgu.spl.net.log.Log;
+import bgu.spl.net.log.Logger;
+import bgu.spl.net.metrics.Counter;
+import bgu.spl.net.metrics.Histogram;
+import bgu.spl.net.metrics.MetricsRegistry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Writes the audit statements of the server (registrations, logins, logouts, file uploads) behind the threads
+ * that cause them.
+ *
+ * Statements are queued and a writer thread sends them to the SQL sidecar in batches, each batch a single
+ * message run as one transaction. The statements are written in the order they were queued. A statement that
+ * fails is rolled back alone by the sidecar, the others of its batch are still written.
+ *
+ * The queue holds stomp.sql.audit.queue statements, 10000 by default. When it is full, the threads queueing
+ * statements wait for the writer. What is still queued when the server exits is written by a shutdown hook.
+ *
+ * A batch that throws is logged and counted as failed, the writer goes on with the next one.
+ * Logs name the statements only, never their bound values, which include passwords.
+ *
+ * Metrics: sql.audit.batch - statements per batch, sql.audit.lag.ns - how long the oldest statement of a batch
+ * waited in the queue, sql.audit.queue_full - statements queued while the queue was full,
+ * sql.audit.failed - statements that failed, alone or with their whole batch.
+ */
+/*package*/ final class AuditWriter {
+
+	public static final int DEFAULT_QUEUE_SIZE = 10_000;
+	public static final int MAX_BATCH = 500;
+
+	private static final long SHUTDOWN_FLUSH_MILLIS = 10_000;
+
+	private static final Logger log = Log.getLogger(AuditWriter.class);
+	private static final Histogram BATCH = MetricsRegistry.getInstance().histogram("sql.audit.batch");
+	private static final Histogram LAG = MetricsRegistry.getInstance().histogram("sql.audit.lag.ns");
+	private static final Counter QUEUE_FULL = MetricsRegistry.getInstance().counter("sql.audit.queue_full");
+	private static final Counter FAILED = MetricsRegistry.getInstance().counter("sql.audit.failed");
+
+	private final Function<List<String>, List<String>> executor;
+	private final BlockingQueue<Entry> queue;
+	private final List<Entry> batch = new ArrayList<>(MAX_BATCH);
+	private final List<String> statements = new ArrayList<>(MAX_BATCH);
+
+	/**
+	 * @param executor runs a batch of statements on the sidecar and returns the result of each
+	 */
+	AuditWriter(Function<List<String>, List<String>> executor) {
+		this.executor = executor;
+		this.queue = new ArrayBlockingQueue<>(Integer.getInteger("stomp.sql.audit.queue", DEFAULT_QUEUE_SIZE));
+		Thread writer = new Thread(this::run, "sql-audit-writer");
+		writer.setDaemon(true);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(SHUTDOWN_FLUSH_MILLIS), "sql-audit-flush"));
+	}
+
+	/**
+	 * Queue a statement, waiting only if the queue is full
+	 */
+	void write(String sql) {
+		enqueue(new Entry(sql, null));
+	}
+
+	/**
+	 * Wait until the statements queued before the call were written
+	 * @return false if they were not written within the timeout
+	 */
+	boolean flush(long timeoutMillis) {
+		CountDownLatch written = new CountDownLatch(1);
+		enqueue(new Entry(null, written));
+		try {
+			return written.await(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private void enqueue(Entry entry) {
+		if (queue.offer(entry)) {
+			return;
+		}
+		QUEUE_FULL.increment();
+		try {
+			queue.put(entry);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			if (entry.sql != null) {
+				FAILED.increment();
+				log.warn("Interrupted while queueing an audit statement, dropped {}", SqlStatement.describe(entry.sql));
+			}
+		}
+	}
+
+	private void run() {
+		while (true) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException ex) {
+				return;
+			}
+			queue.drainTo(batch, MAX_BATCH - 1);
+			try {
+				writeBatch();
+			} catch (RuntimeException ex) {
+				FAILED.add(statements.size());
+				log.warn("Audit batch of " + statements.size() + " statements failed", ex);
+			} finally {
+				// flushes wait for the statements queued before them, written or not
+				for (Entry entry : batch) {
+					if (entry.written != null) {
+						entry.written.countDown();
+					}
+				}
+				batch.clear();
+			}
+		}
+	}
+
+	private void writeBatch() {
+		statements.clear();
+		for (Entry entry : batch) {
+			if (entry.sql != null) {
+				if (statements.isEmpty()) {
+					LAG.record(System.nanoTime() - entry.queued);
+				}
+				statements.add(entry.sql);
+			}
+		}
+
+		if (!statements.isEmpty()) {
+			BATCH.record(statements.size());
+			List<String> results = executor.apply(statements);
+			if (results.size() != statements.size()) {
+				throw new IllegalStateException(results.size() + " results for " + statements.size() + " statements");
+			}
+			int failed = 0;
+			for (int i = 0; i < results.size(); i++) {
+				if (results.get(i).startsWith("ERROR") && failed++ == 0) {
+					log.warn("Audit statement {} failed, {}", SqlStatement.describe(statements.get(i)), results.get(i));
+				}
+			}
+			FAILED.add(failed);
+			if (failed > 1) {
+				log.warn("{} of {} audit statements of the batch failed", failed, statements.size());
+			}
+		}
+	}
+
+	/**
+	 * A queued statement, or a flush waiting for the statements before it when sql is null
+	 */
+	private static final class Entry {
+		final String sql;
+		final CountDownLatch written;
+		final long queued = System.nanoTime();
+
+		Entry(String sql, CountDownLatch written) {
+			this.sql = sql;
+			this.written = written;
+		}
+	}
+}
@@ -1,23 +1,34 @@
 package bgu.spl.net.impl.data;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
-import java.net.Socket;
+import bgu.spl.net.log.Log;
+import bgu.spl.net.log.Logger;
+import bgu.spl.net.metrics.Counter;
+import bgu.spl.net.metrics.Histogram;
+import bgu.spl.net.metrics.MetricsRegistry;
+import bgu.spl.net.metrics.SqlEvent;
+import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class Database {
+	private static final Logger log = Log.getLogger(Database.class);
+	private static final Histogram SQL_LATENCY = MetricsRegistry.getInstance().histogram("sql.execute.ns");
+	private static final Counter SQL_ERRORS = MetricsRegistry.getInstance().counter("sql.errors");
+	private static final long REPORT_FLUSH_MILLIS = 10_000;
+	public static final String DEFAULT_SQL_HOST = "127.0.0.1";
+	public static final int DEFAULT_SQL_PORT = 7778;
 	private final ConcurrentHashMap<String, User> userMap;
 	private final ConcurrentHashMap<Integer, User> connectionsIdMap;
-	private final String sqlHost;
-	private final int sqlPort;
+	private final SqlConnectionPool sqlPool;
+	private final AuditWriter auditWriter;
 
 	private Database() {
 		userMap = new ConcurrentHashMap<>();
 		connectionsIdMap = new ConcurrentHashMap<>();
-		// SQL server connection details
-		this.sqlHost = "127.0.0.1";
-		this.sqlPort = 7778;
+		// SQL server connection details, set with the stomp.sql.host and stomp.sql.port system properties
+		this.sqlPool = new SqlConnectionPool(System.getProperty("stomp.sql.host", DEFAULT_SQL_HOST),
+				Integer.getInteger("stomp.sql.port", DEFAULT_SQL_PORT), SqlStatement.preparations());
+		this.auditWriter = new AuditWriter(this::executeBatch);
 	}
 
 	public static Database getInstance() {
@@ -25,40 +36,51 @@ public class Database {
 	}
 
 	/**
-	 * Execute SQL query and return result
+	 * Execute SQL query on a pooled connection to the SQL server and return result
 	 * @param sql SQL query string
 	 * @return Result string from SQL server
 	 */
 	private String executeSQL(String sql) {
-		try (Socket socket = new Socket(sqlHost, sqlPort);
-			 PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-			 BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-			
-			// Send SQL with null terminator
-			out.print(sql + '\0');
-			out.flush();
-			
-			// Read response until null terminator
-			StringBuilder response = new StringBuilder();
-			int ch;
-			while ((ch = in.read()) != -1 && ch != '\0') {
-				response.append((char) ch);
-			}
-			
-			return response.toString();
-			
-		} catch (Exception e) {
-			System.err.println("SQL Error: " + e.getMessage());
+		long start = System.nanoTime();
+		SqlEvent event = new SqlEvent();
+		event.begin();
+		boolean failed = false;
+		try {
+			return sqlPool.execute(sql);
+		} catch (IOException e) {
+			failed = true;
+			SQL_ERRORS.increment();
+			log.warn("SQL Error: {}", e.getMessage());
 			return "ERROR:" + e.getMessage();
+		} finally {
+			SQL_LATENCY.record(System.nanoTime() - start);
+			event.end();
+			if (event.shouldCommit()) {
+				event.kind = statementKind(sql);
+				event.failed = failed;
+				event.commit();
+			}
 		}
 	}
 
 	/**
-	 * Escape SQL special characters to prevent SQL injection
+	 * Execute statements in one transaction of the SQL server
+	 * @return the result of each statement, a statement that failed is rolled back alone
+	 */
+	private List<String> executeBatch(List<String> statements) {
+		return SqlBatch.decode(executeSQL(SqlBatch.encode(statements)), statements.size());
+	}
+
+	/**
+	 * The first keyword of a statement, upper cased
 	 */
-	private String escapeSql(String str) {
-		if (str == null) return "";
-		return str.replace("'", "''");
+	private static String statementKind(String sql) {
+		String trimmed = sql.trim();
+		int end = 0;
+		while (end < trimmed.length() && Character.isLetter(trimmed.charAt(end))) {
+			end++;
+		}
+		return trimmed.substring(0, end).toUpperCase();
 	}
 
 	public void addUser(User user) {
@@ -72,11 +94,7 @@ public class Database {
 		}
 		if (addNewUserCase(connectionId, username, password)) {
 			// Log new user registration in SQL
-			String sql = String.format(
-				"INSERT INTO users (username, password, registration_date) VALUES ('%s', '%s', datetime('now'))",
-				escapeSql(username), escapeSql(password)
-			);
-			executeSQL(sql);
+			auditWriter.write(SqlStatement.REGISTER_USER.bind(username, password, SqlStatement.now()));
 			
 			// Log login
 			logLogin(username);
@@ -92,11 +110,7 @@ public class Database {
 	}
 
 	private void logLogin(String username) {
-		String sql = String.format(
-			"INSERT INTO login_history (username, login_time) VALUES ('%s', datetime('now'))",
-			escapeSql(username)
-		);
-		executeSQL(sql);
+		auditWriter.write(SqlStatement.LOG_LOGIN.bind(username, SqlStatement.now()));
 	}
 
 	private LoginStatus userExistsCase(int connectionId, String username, String password) {
@@ -133,12 +147,8 @@ public class Database {
 		User user = connectionsIdMap.get(connectionsId);
 		if (user != null) {
 			// Log logout in SQL
-			String sql = String.format(
-				"UPDATE login_history SET logout_time=datetime('now') " +
-				"WHERE username='%s' AND logout_time IS NULL",
-				escapeSql(user.name)
-			);
-			executeSQL(sql);
+			String now = SqlStatement.now();
+			auditWriter.write(SqlStatement.LOG_LOGOUT.bind(now, user.name, now));
 			
 			user.logout();
 			connectionsIdMap.remove(connectionsId);
@@ -146,24 +156,31 @@ public class Database {
 	}
 
 	/**
-	 * Track file upload in SQL database
+	 * Track file upload in SQL database, the row is written behind the caller
 	 * @param username User who uploaded the file
 	 * @param filename Name of the file
 	 * @param gameChannel Game channel the file was reported to
 	 */
 	public void trackFileUpload(String username, String filename, String gameChannel) {
-		String sql = String.format(
-			"INSERT INTO file_tracking (username, filename, upload_time, game_channel) " +
-			"VALUES ('%s', '%s', datetime('now'), '%s')",
-			escapeSql(username), escapeSql(filename), escapeSql(gameChannel)
-		);
-		executeSQL(sql);
+		auditWriter.write(SqlStatement.TRACK_FILE_UPLOAD.bind(orEmpty(username), orEmpty(filename), SqlStatement.now(),
+				orEmpty(gameChannel)));
+	}
+
+	/**
+	 * Headers missing from the frame are tracked as empty strings
+	 */
+	private static String orEmpty(String value) {
+		return value != null ? value : "";
 	}
 
 	/**
 	 * Generate and print server report using SQL queries
 	 */
 	public void printReport() {
+		// the report reads the audit rows, they are written first
+		if (!auditWriter.flush(REPORT_FLUSH_MILLIS)) {
+			log.warn("Audit rows still queued after {}ms, the report may miss the latest ones", REPORT_FLUSH_MILLIS);
+		}
 		System.out.println(repeat("=", 80));
 		System.out.println("SERVER REPORT - Generated at: " + java.time.LocalDateTime.now());
 		System.out.println(repeat("=", 80));
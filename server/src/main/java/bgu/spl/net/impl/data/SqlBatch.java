@@ -0,0 +1,62 @@
+package bgu.spl.net.impl.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The batch message of the SQL sidecar: several statements sent as one message and run in one transaction.
+ * <pre>
+ * BATCH &lt;count&gt;\n&lt;length&gt;\n&lt;statement&gt;&lt;length&gt;\n&lt;statement&gt;...
+ * </pre>
+ * Lengths count the code points of the statement, which the sidecar counts as characters. The reply has the
+ * same form and holds the result of every statement in order, "done", "SUCCESS|..." or "ERROR:...".
+ */
+/*package*/ final class SqlBatch {
+
+	static final String PREFIX = "BATCH ";
+
+	private SqlBatch() {
+	}
+
+	static String encode(List<String> statements) {
+		int size = PREFIX.length() + 8;
+		for (String statement : statements) {
+			size += statement.length() + 8;
+		}
+		StringBuilder message = new StringBuilder(size);
+		message.append(PREFIX).append(statements.size()).append('\n');
+		for (String statement : statements) {
+			message.append(statement.codePointCount(0, statement.length())).append('\n').append(statement);
+		}
+		return message.toString();
+	}
+
+	/**
+	 * @param count the number of statements of the batch
+	 * @return the result of each statement, all of them the reply itself if it is not a batch,
+	 * as when the whole message failed
+	 */
+	static List<String> decode(String reply, int count) {
+		if (!reply.startsWith(PREFIX)) {
+			return Collections.nCopies(count, reply);
+		}
+		try {
+			int headerEnd = reply.indexOf('\n');
+			if (Integer.parseInt(reply.substring(PREFIX.length(), headerEnd)) != count) {
+				return Collections.nCopies(count, "ERROR:Batch reply of another size");
+			}
+			List<String> results = new ArrayList<>(count);
+			int start = headerEnd + 1;
+			for (int i = 0; i < count; i++) {
+				int lengthEnd = reply.indexOf('\n', start);
+				int length = Integer.parseInt(reply.substring(start, lengthEnd));
+				start = reply.offsetByCodePoints(lengthEnd + 1, length);
+				results.add(reply.substring(lengthEnd + 1, start));
+			}
+			return results;
+		} catch (RuntimeException ex) {
+			return Collections.nCopies(count, "ERROR:Malformed batch reply");
+		}
+	}
+}
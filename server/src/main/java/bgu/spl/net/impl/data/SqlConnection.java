@@ -0,0 +1,145 @@
+package bgu.spl.net.impl.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A persistent connection to the SQL sidecar, shared by every thread that runs statements on it.
+ *
+ * Statements are pipelined: a thread writes its statement and waits for its own result without waiting
+ * for the statements written before it. The sidecar answers the statements of a connection in order, so results
+ * are matched to statements by the order they were written in. A reader thread completes them as they arrive.
+ *
+ * Once any write or read fails the connection is closed, and every statement still waiting fails with it.
+ */
+/*package*/ final class SqlConnection {
+
+	private final Socket socket;
+	private final OutputStream out;
+	private final InputStream in;
+	// results not yet read, in the order their statements were written, guarded by itself
+	private final ArrayDeque<CompletableFuture<String>> pending = new ArrayDeque<>();
+	private volatile boolean open = true;
+	private volatile long lastUsed = System.nanoTime();
+
+	private SqlConnection(Socket socket) throws IOException {
+		this.socket = socket;
+		this.out = new BufferedOutputStream(socket.getOutputStream());
+		this.in = new BufferedInputStream(socket.getInputStream());
+	}
+
+	/**
+	 * Connect to the sidecar and start reading results
+	 */
+	static SqlConnection open(String host, int port, int timeoutMillis, String name) throws IOException {
+		Socket socket = new Socket();
+		try {
+			socket.connect(new InetSocketAddress(host, port), timeoutMillis);
+			socket.setTcpNoDelay(true);
+			SqlConnection connection = new SqlConnection(socket);
+			Thread reader = new Thread(connection::readResults, name);
+			reader.setDaemon(true);
+			reader.start();
+			return connection;
+		} catch (IOException ex) {
+			socket.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Write a statement
+	 * @return the statement's result, completed when the sidecar answered
+	 * @throws IOException if the statement could not be written, it was not run then
+	 */
+	CompletableFuture<String> submit(String sql) throws IOException {
+		byte[] bytes = (sql + '\0').getBytes(StandardCharsets.UTF_8);
+		CompletableFuture<String> result = new CompletableFuture<>();
+		// results are matched by order, a statement is queued and written before the next one is
+		synchronized (out) {
+			synchronized (pending) {
+				if (!open) {
+					throw new IOException("Connection to the SQL server is closed");
+				}
+				pending.add(result);
+			}
+			try {
+				out.write(bytes);
+				out.flush();
+			} catch (IOException ex) {
+				close(ex);
+				throw ex;
+			}
+		}
+		lastUsed = System.nanoTime();
+		return result;
+	}
+
+	boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * @return the System.nanoTime() of the last statement written
+	 */
+	long lastUsed() {
+		return lastUsed;
+	}
+
+	/**
+	 * Close the connection, failing the statements waiting for their results
+	 */
+	void close(IOException cause) {
+		ArrayDeque<CompletableFuture<String>> failed;
+		synchronized (pending) {
+			if (!open) {
+				return;
+			}
+			open = false;
+			failed = new ArrayDeque<>(pending);
+			pending.clear();
+		}
+		try {
+			socket.close();
+		} catch (IOException ex) {
+			// closing anyway
+		}
+		for (CompletableFuture<String> result : failed) {
+			result.completeExceptionally(cause);
+		}
+	}
+
+	private void readResults() {
+		ByteArrayOutputStream result = new ByteArrayOutputStream(256);
+		try {
+			int b;
+			while ((b = in.read()) >= 0) {
+				if (b != 0) {
+					result.write(b);
+					continue;
+				}
+				CompletableFuture<String> next;
+				synchronized (pending) {
+					next = pending.poll();
+				}
+				if (next == null) {
+					throw new IOException("The SQL server sent a result for no statement");
+				}
+				next.complete(new String(result.toByteArray(), StandardCharsets.UTF_8));
+				result.reset();
+			}
+			close(new IOException("The SQL server closed the connection"));
+		} catch (IOException ex) {
+			close(ex);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package bgu.spl.net.impl.data;
+
+import bgu.spl.net.log.Log;
+import bgu.spl.net.log.Logger;
+import bgu.spl.net.metrics.Counter;
+import bgu.spl.net.metrics.MetricsRegistry;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Persistent connections to the SQL sidecar, used round robin by the threads running statements.
+ *
+ * Connections are opened on first use and reopened on the next use after they failed, so the server can start
+ * before the sidecar and outlive its restarts. A statement that is not answered within the timeout fails and
+ * closes its connection, the results read after it could not be matched to their statements anymore.
+ * A health check thread runs "SELECT 1" on connections idle for longer than the check interval, so a dead
+ * sidecar is found, and the connection reopened, before a client waits on it.
+ * Every new connection first sends the pool's setup messages, the statements it prepares on the sidecar.
+ *
+ * Set with system properties:
+ * <ul>
+ * <li>stomp.sql.connections - the number of connections, 4 by default</li>
+ * <li>stomp.sql.timeout - milliseconds to connect and to wait for a result, 5000 by default</li>
+ * </ul>
+ */
+/*package*/ final class SqlConnectionPool {
+
+	public static final int DEFAULT_CONNECTIONS = 4;
+	public static final int DEFAULT_TIMEOUT_MILLIS = 5000;
+
+	private static final long HEALTH_CHECK_MILLIS = 10_000;
+	private static final String HEALTH_CHECK = "SELECT 1";
+
+	private static final Logger log = Log.getLogger(SqlConnectionPool.class);
+	private static final Counter CONNECTS = MetricsRegistry.getInstance().counter("sql.connects");
+	private static final Counter TIMEOUTS = MetricsRegistry.getInstance().counter("sql.timeouts");
+
+	private final String host;
+	private final int port;
+	private final int timeoutMillis;
+	private final List<String> setup;
+	private final AtomicReferenceArray<SqlConnection> connections;
+	private final Object[] connectLocks;
+	private final AtomicInteger next = new AtomicInteger();
+
+	/**
+	 * @param setup messages sent first on every new connection
+	 */
+	SqlConnectionPool(String host, int port, List<String> setup) {
+		this(host, port, setup, Integer.getInteger("stomp.sql.connections", DEFAULT_CONNECTIONS),
+				Integer.getInteger("stomp.sql.timeout", DEFAULT_TIMEOUT_MILLIS));
+	}
+
+	SqlConnectionPool(String host, int port, List<String> setup, int size, int timeoutMillis) {
+		this.host = host;
+		this.port = port;
+		this.setup = setup;
+		this.timeoutMillis = timeoutMillis;
+		this.connections = new AtomicReferenceArray<>(size);
+		this.connectLocks = new Object[size];
+		for (int i = 0; i < size; i++) {
+			connectLocks[i] = new Object();
+		}
+		Thread healthCheck = new Thread(this::runHealthChecks, "sql-health-check");
+		healthCheck.setDaemon(true);
+		healthCheck.start();
+	}
+
+	/**
+	 * Run a statement on the next connection and wait for its result
+	 * @throws IOException if the sidecar cannot be reached or did not answer in time
+	 */
+	String execute(String sql) throws IOException {
+		int slot = Math.floorMod(next.getAndIncrement(), connections.length());
+		SqlConnection connection = connection(slot);
+		CompletableFuture<String> result;
+		try {
+			result = connection.submit(sql);
+		} catch (IOException ex) {
+			// the statement was not written, it is safe to try again on a new connection
+			connection = connection(slot);
+			result = connection.submit(sql);
+		}
+		return await(connection, result);
+	}
+
+	private String await(SqlConnection connection, CompletableFuture<String> result) throws IOException {
+		try {
+			return result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException ex) {
+			TIMEOUTS.increment();
+			IOException timeout = new IOException("The SQL server did not answer within " + timeoutMillis + "ms");
+			connection.close(timeout);
+			throw timeout;
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the SQL server");
+		}
+	}
+
+	/**
+	 * @return the open connection of the slot, opening a new one if it has none
+	 */
+	private SqlConnection connection(int slot) throws IOException {
+		SqlConnection connection = connections.get(slot);
+		if (connection != null && connection.isOpen()) {
+			return connection;
+		}
+		synchronized (connectLocks[slot]) {
+			connection = connections.get(slot);
+			if (connection == null || !connection.isOpen()) {
+				connection = SqlConnection.open(host, port, timeoutMillis, "sql-reader-" + slot);
+				// pipelined ahead of the statements using them, a failure shows in their results as well
+				for (String message : setup) {
+					connection.submit(message).thenAccept(result -> {
+						if (result.startsWith("ERROR")) {
+							log.warn("SQL connection setup failed, {}: {}", result, message);
+						}
+					});
+				}
+				connections.set(slot, connection);
+				CONNECTS.increment();
+				log.debug("Connected to the SQL server on slot {}", slot);
+			}
+			return connection;
+		}
+	}
+
+	private void runHealthChecks() {
+		while (true) {
+			try {
+				Thread.sleep(HEALTH_CHECK_MILLIS);
+			} catch (InterruptedException ex) {
+				return;
+			}
+			long idleSince = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(HEALTH_CHECK_MILLIS);
+			for (int slot = 0; slot < connections.length(); slot++) {
+				SqlConnection connection = connections.get(slot);
+				// slots never used wait for their first statement
+				if (connection == null || (connection.isOpen() && connection.lastUsed() - idleSince > 0)) {
+					continue;
+				}
+				try {
+					connection = connection(slot);
+					await(connection, connection.submit(HEALTH_CHECK));
+				} catch (IOException ex) {
+					log.debug("SQL health check failed on slot {}: {}", slot, ex.getMessage());
+				}
+			}
+		}
+	}
+}
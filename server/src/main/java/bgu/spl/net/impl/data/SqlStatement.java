@@ -0,0 +1,128 @@
+package bgu.spl.net.impl.data;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The statements the server runs with parameters, prepared once on every connection to the SQL sidecar.
+ *
+ * A new connection sends the sidecar each statement's SQL under its id:
+ * <pre>
+ * PREPARE &lt;id&gt;\n&lt;sql&gt;
+ * </pre>
+ * after which the statement is run by id with typed parameters, alone or as an item of a {@link SqlBatch}:
+ * <pre>
+ * EXEC &lt;id&gt; &lt;count&gt;\n&lt;parameter&gt;...
+ * s&lt;length&gt;\n&lt;string&gt;   a string, its length in code points
+ * i&lt;value&gt;\n             an integer
+ * n\n                     null
+ * </pre>
+ * Values are bound by the sidecar rather than formatted into the SQL, so nothing is escaped and the SQL text
+ * is the same for every run, which SQLite parses once.
+ * Times are bound too, taken by {@link #now()} when the event happened: statements may run well after that,
+ * behind the {@link AuditWriter}.
+ */
+/*package*/ enum SqlStatement {
+	REGISTER_USER("INSERT INTO users (username, password, registration_date) VALUES (?, ?, ?)"),
+	LOG_LOGIN("INSERT INTO login_history (username, login_time) VALUES (?, ?)"),
+	// closes only the logins made before the logout
+	LOG_LOGOUT("UPDATE login_history SET logout_time=? WHERE username=? AND logout_time IS NULL AND login_time<=?"),
+	TRACK_FILE_UPLOAD("INSERT INTO file_tracking (username, filename, upload_time, game_channel) " +
+			"VALUES (?, ?, ?, ?)");
+
+	static final String PREPARE_PREFIX = "PREPARE ";
+	static final String EXEC_PREFIX = "EXEC ";
+
+	// the format of SQLite's datetime('now'), so the rows sort the same as the ones it wrote
+	private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+	// the last second formatted, statements of the same second share it
+	private static volatile Second lastSecond = new Second(Long.MIN_VALUE, null);
+
+	private final String sql;
+
+	SqlStatement(String sql) {
+		this.sql = sql;
+	}
+
+	/**
+	 * @return the current UTC time, as bound to the statements' time parameters
+	 */
+	static String now() {
+		long epochSecond = System.currentTimeMillis() / 1000;
+		Second second = lastSecond;
+		if (second.epochSecond != epochSecond) {
+			second = new Second(epochSecond, LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC).format(TIME_FORMAT));
+			lastSecond = second;
+		}
+		return second.formatted;
+	}
+
+	int id() {
+		return ordinal() + 1;
+	}
+
+	/**
+	 * @return the name of the statement a message runs, for logs, which must not show the bound values
+	 * (a registration binds the password)
+	 */
+	static String describe(String message) {
+		if (message.startsWith(EXEC_PREFIX)) {
+			int idEnd = message.indexOf(' ', EXEC_PREFIX.length());
+			try {
+				int id = Integer.parseInt(message.substring(EXEC_PREFIX.length(), idEnd));
+				if (id >= 1 && id <= values().length) {
+					return values()[id - 1].name();
+				}
+			} catch (RuntimeException ex) {
+				// not an EXEC this enum encoded, described below
+			}
+		}
+		return "unprepared statement";
+	}
+
+	/**
+	 * @return the messages preparing every statement, to send first on a new connection
+	 */
+	static List<String> preparations() {
+		List<String> messages = new ArrayList<>();
+		for (SqlStatement statement : values()) {
+			messages.add(PREPARE_PREFIX + statement.id() + '\n' + statement.sql);
+		}
+		return messages;
+	}
+
+	/**
+	 * Encode a run of the statement
+	 * @param parameters Strings, Integers, Longs or nulls, one for each '?' of the SQL
+	 */
+	String bind(Object... parameters) {
+		StringBuilder message = new StringBuilder(64);
+		message.append(EXEC_PREFIX).append(id()).append(' ').append(parameters.length).append('\n');
+		for (Object parameter : parameters) {
+			if (parameter == null) {
+				message.append("n\n");
+			} else if (parameter instanceof String) {
+				String value = (String) parameter;
+				message.append('s').append(value.codePointCount(0, value.length())).append('\n').append(value);
+			} else if (parameter instanceof Integer || parameter instanceof Long) {
+				message.append('i').append(parameter).append('\n');
+			} else {
+				throw new IllegalArgumentException("Unsupported parameter type " + parameter.getClass().getName());
+			}
+		}
+		return message.toString();
+	}
+
+	private static final class Second {
+		final long epochSecond;
+		final String formatted;
+
+		Second(long epochSecond, String formatted) {
+			this.epochSecond = epochSecond;
+			this.formatted = formatted;
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package bgu.spl.net.impl.echo;
 
 import bgu.spl.net.api.MessageEncoderDecoder;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
@@ -26,6 +27,25 @@ public class LineMessageEncoderDecoder implements MessageEncoderDecoder<String>
         return (message + "\n").getBytes(); //uses utf8 by default
     }
 
+    @Override
+    public boolean encode(String message, ByteBuffer out) {
+        if (message.length() + 1 > out.remaining()) {
+            return false;
+        }
+        int start = out.position();
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (c >= 0x80) {
+                //not plain ascii, let the charset encoder handle it
+                out.position(start);
+                return MessageEncoderDecoder.super.encode(message, out);
+            }
+            out.put((byte) c);
+        }
+        out.put((byte) '\n');
+        return true;
+    }
+
     private void pushByte(byte nextByte) {
         if (len >= bytes.length) {
             bytes = Arrays.copyOf(bytes, len * 2);
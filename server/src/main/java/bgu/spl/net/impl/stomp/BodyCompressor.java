@@ -0,0 +1,77 @@
+package bgu.spl.net.impl.stomp;
+
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Deflates MESSAGE bodies for the clients that negotiated it.
+ * A client asks for compressed bodies with an "accept-encoding:deflate" header on CONNECT, the server
+ * confirms it with the same header on CONNECTED. From then on bodies of at least {@link #THRESHOLD}
+ * bytes are sent deflated, marked with "content-encoding:deflate" and a content-length of the compressed bytes.
+ * Not thread safe, every protocol instance keeps its own.
+ */
+public class BodyCompressor {
+
+    public static final String ENCODING = "deflate";
+
+    /**
+     * Bodies smaller than this are always sent as is, compressing them saves too little
+     */
+    public static final int THRESHOLD = 1024;
+
+    private Deflater deflater;
+    private byte[] out = new byte[THRESHOLD];
+
+    /**
+     * @return true if a client header listing encodings names the one this server supports
+     */
+    public static boolean accepts(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String encoding : acceptEncoding.split(",")) {
+            if (encoding.trim().equalsIgnoreCase(ENCODING)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the deflated body, or null if the body is below the threshold or does not get smaller
+     */
+    public byte[] deflate(byte[] body) {
+        if (body.length < THRESHOLD) {
+            return null;
+        }
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        }
+        deflater.reset();
+        deflater.setInput(body);
+        deflater.finish();
+
+        int length = 0;
+        // stop once the output would not be smaller than the body
+        while (!deflater.finished() && length < body.length) {
+            if (length == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        if (!deflater.finished() || length >= body.length) {
+            return null;
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    /**
+     * Release the native memory of the deflater
+     */
+    public void close() {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+    }
+}
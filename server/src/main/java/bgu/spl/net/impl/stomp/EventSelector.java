@@ -0,0 +1,178 @@
+package bgu.spl.net.impl.stomp;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A compiled SUBSCRIBE selector, matched against the fields of a game event body.
+ *
+ * Syntax: clauses joined with "and" / "or" ("and" binds tighter), where a clause is one of
+ *   field = value    the field equals value
+ *   field != value   the field is missing or differs from value
+ *   field ~ text     the field contains text
+ *   field            the field is present (for update sections: holds at least one update)
+ * Fields are the keys of the event body ("event name", "team a"), keys inside an update
+ * section are addressed as "team a updates.goals". Names and values are case insensitive.
+ */
+public class EventSelector implements Predicate<Map<String, String>> {
+
+    private final String source;
+    // disjunction of conjunctions
+    private final List<List<Clause>> alternatives;
+
+    private EventSelector(String source, List<List<Clause>> alternatives) {
+        this.source = source;
+        this.alternatives = alternatives;
+    }
+
+    /**
+     * Compile a selector header value
+     * @throws IllegalArgumentException if the selector is malformed
+     */
+    public static EventSelector compile(String selector) {
+        List<List<Clause>> alternatives = new ArrayList<>();
+        for (String alternative : splitKeyword(selector, "or")) {
+            List<Clause> clauses = new ArrayList<>();
+            for (String clause : splitKeyword(alternative, "and")) {
+                clauses.add(Clause.parse(clause));
+            }
+            alternatives.add(clauses);
+        }
+        return new EventSelector(selector, alternatives);
+    }
+
+    @Override
+    public boolean test(Map<String, String> fields) {
+        for (List<Clause> clauses : alternatives) {
+            boolean all = true;
+            for (Clause clause : clauses) {
+                if (!clause.test(fields)) {
+                    all = false;
+                    break;
+                }
+            }
+            if (all) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Parse the fields of a game event body.
+     * Keys are lower-cased, a key with no value opens an update section whose entries are
+     * stored as "section.key". Fields keep the order of the body. Parsing stops at the free-text description.
+     */
+    public static Map<String, String> parseFields(String body) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        String section = null;
+        int start = 0;
+        while (start < body.length()) {
+            int end = body.indexOf('\n', start);
+            if (end < 0) end = body.length();
+            String line = body.substring(start, end);
+            start = end + 1;
+
+            int colon = line.indexOf(':');
+            if (colon <= 0) continue;
+            String key = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(colon + 1).trim();
+
+            if (key.equals("description")) {
+                fields.put(key, value);
+                break;
+            }
+            if (value.isEmpty()) {
+                section = key;
+                fields.put(key, "");
+            } else if (section != null) {
+                fields.put(section + "." + key, value);
+            } else {
+                fields.put(key, value);
+            }
+        }
+        return fields;
+    }
+
+    private static List<String> splitKeyword(String expression, String keyword) {
+        List<String> parts = new ArrayList<>();
+        String lower = expression.toLowerCase(Locale.ROOT);
+        String separator = " " + keyword + " ";
+        int start = 0;
+        int index;
+        while ((index = lower.indexOf(separator, start)) >= 0) {
+            parts.add(expression.substring(start, index));
+            start = index + separator.length();
+        }
+        parts.add(expression.substring(start));
+        return parts;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    private static class Clause {
+        private static final int EXISTS = 0, EQUALS = 1, NOT_EQUALS = 2, CONTAINS = 3;
+
+        private final String field;
+        private final int op;
+        private final String value;
+
+        private Clause(String field, int op, String value) {
+            this.field = field;
+            this.op = op;
+            this.value = value;
+        }
+
+        static Clause parse(String clause) {
+            int op;
+            int index;
+            int length = 1;
+            if ((index = clause.indexOf("!=")) >= 0) {
+                op = NOT_EQUALS;
+                length = 2;
+            } else if ((index = clause.indexOf('=')) >= 0) {
+                op = EQUALS;
+            } else if ((index = clause.indexOf('~')) >= 0) {
+                op = CONTAINS;
+            } else {
+                op = EXISTS;
+                index = clause.length();
+                length = 0;
+            }
+
+            String field = clause.substring(0, index).trim().toLowerCase(Locale.ROOT);
+            String value = clause.substring(index + length).trim().toLowerCase(Locale.ROOT);
+            if (field.isEmpty() || (op != EXISTS && value.isEmpty())) {
+                throw new IllegalArgumentException("Malformed selector clause: " + clause.trim());
+            }
+            return new Clause(field, op, value);
+        }
+
+        boolean test(Map<String, String> fields) {
+            String actual = fields.get(field);
+            switch (op) {
+                case EQUALS:
+                    return actual != null && actual.equalsIgnoreCase(value);
+                case NOT_EQUALS:
+                    return actual == null || !actual.equalsIgnoreCase(value);
+                case CONTAINS:
+                    return actual != null && actual.toLowerCase(Locale.ROOT).contains(value);
+                default:
+                    return actual != null && (!actual.isEmpty() || hasEntries(fields));
+            }
+        }
+
+        private boolean hasEntries(Map<String, String> fields) {
+            String prefix = field + ".";
+            for (String key : fields.keySet()) {
+                if (key.startsWith(prefix)) return true;
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package bgu.spl.net.impl.stomp;
+
+import bgu.spl.net.metrics.Counter;
+import bgu.spl.net.metrics.MetricsRegistry;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Current state of every game channel, folded incrementally from the events reported on it.
+ * A late subscriber receives the state as a single snapshot instead of the whole event history.
+ *
+ * Only game channels are tracked, the flat "/teamA_teamB" destinations clients report to, and only while they
+ * have subscribers: the state of a channel is dropped when its last subscriber leaves. At most
+ * stomp.game.max_states channels are tracked, 10000 by default, events on further channels are not folded and
+ * are counted by the game.states.untracked metric.
+ */
+public class GameStates {
+
+    public static final int DEFAULT_MAX_STATES = 10_000;
+
+    private static final Counter UNTRACKED = MetricsRegistry.getInstance().counter("game.states.untracked");
+
+    private final ConcurrentHashMap<String, GameState> states;
+    private final int maxStates;
+
+    private GameStates() {
+        states = new ConcurrentHashMap<>();
+        maxStates = Integer.getInteger("stomp.game.max_states", DEFAULT_MAX_STATES);
+    }
+
+    public static GameStates getInstance() {
+        return Instance.instance;
+    }
+
+    /**
+     * @return true if events sent to the destination are folded into a game state: a "/" and a single name,
+     * as the client names the channel of a game
+     */
+    public static boolean isGameChannel(String destination) {
+        return destination.length() > 1 && destination.charAt(0) == '/' && destination.indexOf('/', 1) < 0
+                && destination.indexOf('*') < 0;
+    }
+
+    /**
+     * Fold the fields of an event reported on the channel into its state
+     * @param fields the event fields, as parsed by {@link EventSelector#parseFields}
+     */
+    public void update(String channel, Map<String, String> fields) {
+        GameState state = states.get(channel);
+        if (state == null) {
+            if (states.size() >= maxStates) {
+                UNTRACKED.increment();
+                return;
+            }
+            state = states.computeIfAbsent(channel, k -> new GameState());
+        }
+        state.update(fields);
+    }
+
+    /**
+     * Forget the state of a channel, once nobody is subscribed to it
+     */
+    public void remove(String channel) {
+        states.remove(channel);
+    }
+
+    /**
+     * @return the channel's state formatted as an event body, or null if nothing was reported on it
+     */
+    public String snapshot(String channel) {
+        GameState state = states.get(channel);
+        return state != null ? state.snapshot() : null;
+    }
+
+    /**
+     * Latest value of every key of a single game.
+     * Later events overwrite earlier values of the same key, so the state stays O(keys).
+     */
+    private static class GameState {
+        // top level fields and update sections, in the order they were first reported
+        private final Map<String, String> fields = new LinkedHashMap<>();
+        private final Map<String, Map<String, String>> sections = new LinkedHashMap<>();
+        private String snapshot;
+
+        synchronized void update(Map<String, String> event) {
+            for (Map.Entry<String, String> entry : event.entrySet()) {
+                String key = entry.getKey();
+                // The reporter and the free-text description describe the event, not the game
+                if (key.equals("user") || key.equals("description")) {
+                    continue;
+                }
+
+                int dot = key.indexOf('.');
+                if (dot >= 0) {
+                    sections.computeIfAbsent(key.substring(0, dot), k -> new LinkedHashMap<>())
+                            .put(key.substring(dot + 1), entry.getValue());
+                } else if (entry.getValue().isEmpty()) {
+                    sections.computeIfAbsent(key, k -> new LinkedHashMap<>());
+                } else {
+                    fields.put(key, entry.getValue());
+                }
+            }
+            snapshot = null;
+        }
+
+        synchronized String snapshot() {
+            if (snapshot == null) {
+                StringBuilder sb = new StringBuilder();
+                for (Map.Entry<String, String> entry : fields.entrySet()) {
+                    sb.append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+                }
+                for (Map.Entry<String, Map<String, String>> section : sections.entrySet()) {
+                    sb.append(section.getKey()).append(":\n");
+                    for (Map.Entry<String, String> entry : section.getValue().entrySet()) {
+                        sb.append("    ").append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+                    }
+                }
+                snapshot = sb.toString();
+            }
+            return snapshot;
+        }
+    }
+
+    private static class Instance {
+        static GameStates instance = new GameStates();
+    }
+}
@@ -0,0 +1,178 @@
+package bgu.spl.net.impl.stomp;
+
+import bgu.spl.net.srv.TrafficCapture;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Masks the values of passcode headers with '*' in the bytes a client sent, for {@link TrafficCapture}.
+ * The bytes are followed as a stream, so a header split over several reads is still found.
+ */
+/*package*/ final class PasscodeRedactor {
+
+    private static final byte MASK = '*';
+    private static final byte[] PASSCODE = StompSymbols.PASSCODE.getBytes(StandardCharsets.UTF_8);
+
+    private PasscodeRedactor() {
+    }
+
+    /**
+     * @return a redactor of text frames, where the passcode is the rest of a line starting with "passcode:".
+     * A body line starting with it is masked as well.
+     */
+    static TrafficCapture.Redactor text() {
+        return new Text();
+    }
+
+    /**
+     * @return a redactor of frames in the {@link StompBinaryEncoderDecoder} framing
+     */
+    static TrafficCapture.Redactor binary() {
+        return new Binary();
+    }
+
+    private static final class Text implements TrafficCapture.Redactor {
+        // "\npasscode:", a header line follows the command line so it always starts after a line feed
+        private static final byte[] LINE_START = ("\n" + StompSymbols.PASSCODE + ":").getBytes(StandardCharsets.UTF_8);
+
+        private int matched = 0;
+        private boolean masking = false;
+
+        @Override
+        public void redact(byte[] bytes, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                byte b = bytes[i];
+                if (masking) {
+                    if (b == '\n' || b == '\r' || b == '\0') {
+                        masking = false;
+                        matched = b == '\n' ? 1 : 0;
+                    } else {
+                        bytes[i] = MASK;
+                    }
+                } else if (b == LINE_START[matched]) {
+                    if (++matched == LINE_START.length) {
+                        masking = true;
+                        matched = 0;
+                    }
+                } else {
+                    matched = b == '\n' ? 1 : 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Follows the frame layout of {@link StompBinaryEncoderDecoder} byte by byte, without buffering.
+     * Every frame ends after its length prefix said, so a malformed frame does not throw off the next ones.
+     */
+    private static final class Binary implements TrafficCapture.Redactor {
+        private static final int PASSCODE_ID = StompSymbols.headerId(StompSymbols.PASSCODE);
+
+        private enum State { LENGTH, COMMAND_ID, COMMAND, HEADER_COUNT, NAME_ID, NAME, VALUE, BODY }
+
+        private State state = State.LENGTH;
+        private int varint = 0;
+        private int shift = 0;
+        // bytes left of the frame, of the current string and headers left of the frame
+        private int frameLeft = 0;
+        private int stringLeft = -1; // -1 while reading the string's length
+        private int headersLeft = 0;
+        private int nameIndex = 0;
+        private boolean nameMatches = false;
+        private boolean secret = false;
+
+        @Override
+        public void redact(byte[] bytes, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                if (state == State.LENGTH) {
+                    if (readVarint(bytes[i]) && varint > 0) {
+                        frameLeft = varint;
+                        state = State.COMMAND_ID;
+                    }
+                    continue;
+                }
+                step(bytes, i);
+                if (--frameLeft == 0) {
+                    state = State.LENGTH;
+                    stringLeft = -1;
+                    shift = 0;
+                }
+            }
+        }
+
+        private void step(byte[] bytes, int i) {
+            byte b = bytes[i];
+            switch (state) {
+                case COMMAND_ID:
+                    if (readVarint(b)) {
+                        state = varint == 0 ? State.COMMAND : State.HEADER_COUNT;
+                    }
+                    break;
+                case HEADER_COUNT:
+                    if (readVarint(b)) {
+                        headersLeft = varint;
+                        state = headersLeft == 0 ? State.BODY : State.NAME_ID;
+                    }
+                    break;
+                case NAME_ID:
+                    if (readVarint(b)) {
+                        secret = varint == PASSCODE_ID;
+                        nameIndex = 0;
+                        nameMatches = true;
+                        state = varint == 0 ? State.NAME : State.VALUE;
+                    }
+                    break;
+                case COMMAND:
+                case NAME:
+                case VALUE:
+                    if (stringLeft < 0) {
+                        if (readVarint(b)) {
+                            stringLeft = varint;
+                        }
+                    } else {
+                        if (state == State.NAME) {
+                            nameMatches &= nameIndex < PASSCODE.length && b == PASSCODE[nameIndex++];
+                        } else if (state == State.VALUE && secret) {
+                            bytes[i] = MASK;
+                        }
+                        stringLeft--;
+                    }
+                    if (stringLeft == 0) {
+                        stringLeft = -1;
+                        endString();
+                    }
+                    break;
+                default:
+                    // the body is not redacted
+            }
+        }
+
+        private void endString() {
+            if (state == State.COMMAND) {
+                state = State.HEADER_COUNT;
+            } else if (state == State.NAME) {
+                secret = nameMatches && nameIndex == PASSCODE.length;
+                state = State.VALUE;
+            } else {
+                state = --headersLeft == 0 ? State.BODY : State.NAME_ID;
+            }
+        }
+
+        /**
+         * @return true once the varint is complete, its value is then in varint
+         */
+        private boolean readVarint(byte b) {
+            if (shift == 0) {
+                varint = 0;
+            }
+            if (shift <= 28) {
+                varint |= (b & 0x7F) << shift;
+            }
+            if ((b & 0x80) != 0) {
+                shift += 7;
+                return false;
+            }
+            shift = 0;
+            return true;
+        }
+    }
+}
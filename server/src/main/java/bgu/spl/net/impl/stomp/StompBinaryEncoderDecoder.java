@@ -0,0 +1,293 @@
+package bgu.spl.net.impl.stomp;
+
+import bgu.spl.net.api.MessageEncoderDecoder;
+import bgu.spl.net.srv.TrafficCapture;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact binary framing of STOMP frames, for high volume clients that do not need a text protocol.
+ * Frames decode to the same {@link StompFrame}s as text frames, so binary and text clients share channels.
+ *
+ * A frame is a varint length followed by that many bytes:
+ * <pre>
+ * varint command id            (0: varint length and UTF-8 command follow)
+ * varint header count
+ * per header:
+ *   varint header name id      (0: varint length and UTF-8 name follow)
+ *   varint value length, UTF-8 value
+ * body                         (the remaining bytes, raw)
+ * </pre>
+ * Ids are the positions of the commands and header names in {@link StompSymbols}, starting at 1.
+ * Varints are unsigned LEB128 (7 bits per byte, least significant first). A frame of length 0 is a heart-beat.
+ * Frames are relayed to text clients, whose framing cannot carry NUL, CR or LF in a command or header, nor ':'
+ * in a header name, so frames holding them are rejected.
+ */
+public class StompBinaryEncoderDecoder implements MessageEncoderDecoder<StompFrame>, TrafficCapture.Redacting {
+
+    private static final int INITIAL_BUFFER_SIZE = 1 << 10; // 1KB initial buffer
+    // buffers grown beyond this by a large frame are dropped back to the initial size once it was processed
+    private static final int SHRINK_THRESHOLD = 1 << 16; // 64KB
+
+    private final int maxFrameSize;
+    private byte[] bytes = new byte[INITIAL_BUFFER_SIZE];
+    private int len = 0;
+    // Decoded frames point into bytes for their body, both are reused for the next frame
+    private final StompFrame frame = new StompFrame(null);
+    // destination of the previous frame, reused while a client keeps sending to it
+    private String lastDestination;
+
+    // streaming state of the current frame
+    private int frameLength = 0;
+    private int lengthShift = 0;
+    private boolean readingLength = true;
+    private int skip = 0; // bytes left of a rejected frame
+
+    // read position while parsing a complete frame
+    private int pos;
+
+    public StompBinaryEncoderDecoder() {
+        this(StompFrameEncoderDecoder.DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    public StompBinaryEncoderDecoder(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    @Override
+    public StompFrame decodeNextByte(byte nextByte) {
+        if (skip > 0) {
+            skip--;
+            return null;
+        }
+
+        if (readingLength) {
+            if (lengthShift > 28) {
+                return reject("Invalid frame length", 0);
+            }
+            frameLength |= (nextByte & 0x7F) << lengthShift;
+            lengthShift += 7;
+            if ((nextByte & 0x80) != 0) {
+                return null;
+            }
+            if (frameLength < 0 || frameLength > maxFrameSize) {
+                return reject("Frame exceeds the maximal size of " + maxFrameSize + " bytes", frameLength);
+            }
+            if (frameLength == 0) {
+                resetLength(); // heart-beat
+                return null;
+            }
+            readingLength = false;
+            if (bytes.length > SHRINK_THRESHOLD) {
+                // the previous frame has been processed, release its oversized buffer
+                bytes = new byte[INITIAL_BUFFER_SIZE];
+            }
+            if (frameLength > bytes.length) {
+                bytes = new byte[frameLength];
+            }
+            len = 0;
+            return null;
+        }
+
+        bytes[len++] = nextByte;
+        if (len < frameLength) {
+            return null;
+        }
+        resetLength();
+        return parse();
+    }
+
+    private StompFrame parse() {
+        pos = 0;
+        int end = len;
+        len = 0;
+        try {
+            int commandId = readVarint(end);
+            String command = commandId == 0 ? readString(end, false) : StompSymbols.commandById(commandId);
+            if (command == null) {
+                return failed("Unknown command id " + commandId);
+            }
+            frame.reset(command);
+
+            int headerCount = readVarint(end);
+            for (int i = 0; i < headerCount; i++) {
+                int nameId = readVarint(end);
+                String name = nameId == 0 ? readString(end, true) : StompSymbols.headerNameById(nameId);
+                if (name == null) {
+                    return failed("Unknown header id " + nameId);
+                }
+                String value = name == StompSymbols.DESTINATION ? readDestination(end) : readString(end, false);
+                frame.addHeader(name, value);
+            }
+            frame.setBody(bytes, pos, end - pos);
+            return frame;
+        } catch (IllegalArgumentException ex) {
+            return failed(ex.getMessage());
+        }
+    }
+
+    private int readVarint(int end) {
+        int value = 0;
+        for (int shift = 0; shift <= 28; shift += 7) {
+            if (pos >= end) {
+                throw new IllegalArgumentException("Truncated frame");
+            }
+            byte b = bytes[pos++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    break;
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Invalid varint");
+    }
+
+    /**
+     * @param name true for a header name, which may not hold ':' either
+     */
+    private String readString(int end, boolean name) {
+        int length = readVarint(end);
+        if (length > end - pos) {
+            throw new IllegalArgumentException("Truncated frame");
+        }
+        checkText(pos, pos + length, name);
+        String str = new String(bytes, pos, length, StandardCharsets.UTF_8);
+        pos += length;
+        return str;
+    }
+
+    private String readDestination(int end) {
+        int length = readVarint(end);
+        if (length > end - pos) {
+            throw new IllegalArgumentException("Truncated frame");
+        }
+        if (lastDestination == null || !StompSymbols.matches(lastDestination, bytes, pos, pos + length)) {
+            checkText(pos, pos + length, false);
+            lastDestination = new String(bytes, pos, length, StandardCharsets.UTF_8);
+        }
+        pos += length;
+        return lastDestination;
+    }
+
+    /**
+     * Bytes of multi-byte UTF-8 characters are all above 0x7F, so a byte scan finds the characters themselves
+     */
+    private void checkText(int from, int to, boolean name) {
+        for (int i = from; i < to; i++) {
+            byte b = bytes[i];
+            if (b == 0 || b == '\n' || b == '\r' || (name && b == ':')) {
+                throw new IllegalArgumentException("Invalid character in a command or header");
+            }
+        }
+    }
+
+    @Override
+    public TrafficCapture.Redactor redactor() {
+        return PasscodeRedactor.binary();
+    }
+
+    @Override
+    public byte[] encode(StompFrame message) {
+        int size = frameSize(message);
+        ByteBuffer out = ByteBuffer.allocate(varintSize(size) + size);
+        put(out, message, size);
+        StompMetrics.frameOut(message.getCommand());
+        return out.array();
+    }
+
+    @Override
+    public boolean encode(StompFrame message, ByteBuffer out) {
+        int size = frameSize(message);
+        if (varintSize(size) + size > out.remaining()) {
+            return false;
+        }
+        put(out, message, size);
+        StompMetrics.frameOut(message.getCommand());
+        return true;
+    }
+
+    /**
+     * @return the encoded size of a frame, without its length prefix
+     */
+    private static int frameSize(StompFrame message) {
+        int size = symbolSize(StompSymbols.commandId(message.getCommand()), message.getCommand());
+        size += varintSize(message.headerCount());
+        for (int i = 0; i < message.headerCount(); i++) {
+            String name = message.headerKey(i);
+            size += symbolSize(StompSymbols.headerId(name), name);
+            size += stringSize(message.headerValue(i));
+        }
+        return size + message.bodyLength();
+    }
+
+    private static void put(ByteBuffer out, StompFrame message, int size) {
+        putVarint(out, size);
+        putSymbol(out, StompSymbols.commandId(message.getCommand()), message.getCommand());
+        putVarint(out, message.headerCount());
+        for (int i = 0; i < message.headerCount(); i++) {
+            String name = message.headerKey(i);
+            putSymbol(out, StompSymbols.headerId(name), name);
+            putString(out, message.headerValue(i));
+        }
+        out.put(message.bodyArray(), message.bodyOffset(), message.bodyLength());
+    }
+
+    private static int symbolSize(int id, String symbol) {
+        return id != 0 ? varintSize(id) : 1 + stringSize(symbol);
+    }
+
+    private static int stringSize(String str) {
+        int length = StompFrameEncoderDecoder.utf8Length(str);
+        return varintSize(length) + length;
+    }
+
+    private static void putSymbol(ByteBuffer out, int id, String symbol) {
+        putVarint(out, id);
+        if (id == 0) {
+            putString(out, symbol);
+        }
+    }
+
+    private static void putString(ByteBuffer out, String str) {
+        putVarint(out, StompFrameEncoderDecoder.utf8Length(str));
+        StompFrameEncoderDecoder.putUtf8(out, str);
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    private void resetLength() {
+        frameLength = 0;
+        lengthShift = 0;
+        readingLength = true;
+    }
+
+    /**
+     * Drop a frame, skip its remaining bytes and report it as malformed
+     */
+    private StompFrame reject(String reason, int remaining) {
+        resetLength();
+        skip = remaining;
+        return failed(reason);
+    }
+
+    private StompFrame failed(String reason) {
+        frame.fail(reason);
+        return frame;
+    }
+}
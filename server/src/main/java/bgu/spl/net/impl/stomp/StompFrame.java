@@ -0,0 +1,342 @@
+package bgu.spl.net.impl.stomp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A STOMP frame: command, headers and body.
+ *
+ * Frames are either built by the server (see {@link #StompFrame(String)}) or parsed in place by
+ * {@link StompFrameEncoderDecoder}. A parsed frame only records the offsets of its parts in the
+ * decoder's buffer; header values are turned into Strings on first access and the body stays bytes.
+ * The decoder reuses its buffer and frame for the next frame, so a parsed frame is only valid until
+ * the protocol returns from processing it - use {@link #copy()} to keep it longer.
+ */
+public class StompFrame {
+
+    private String command;
+
+    // headers, in order: keys and values may be null until materialized from buf
+    private String[] keys = new String[8];
+    private String[] values = new String[8];
+    // per header: keyStart, keyEnd, valueStart, valueEnd in buf, unused for built headers
+    private int[] offsets = new int[32];
+    private int headerCount = 0;
+
+    private byte[] buf;
+    private byte[] body = EMPTY;
+    private int bodyOffset = 0;
+    private int bodyLength = 0;
+    private String bodyString = "";
+    private String decodeError;
+    // destination of the previous frame parsed into this object, reused while clients keep sending to it
+    private String lastDestination;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    public StompFrame(String command) {
+        this.command = command;
+    }
+
+    /**
+     * Parse a frame (without its null terminator) in place.
+     * Only offsets are recorded, the bytes must stay untouched while the frame is in use.
+     * @return false if the bytes do not hold a frame
+     */
+    /*package*/ boolean wrap(byte[] bytes, int length) {
+        buf = bytes;
+        headerCount = 0;
+        decodeError = null;
+        Arrays.fill(keys, null);
+        Arrays.fill(values, null);
+
+        int pos = 0;
+        // heart-beats and stray EOLs may precede the command
+        while (pos < length && (bytes[pos] == '\n' || bytes[pos] == '\r')) {
+            pos++;
+        }
+        int eol = lineEnd(bytes, pos, length);
+        if (eol == pos) {
+            return false;
+        }
+        int commandEnd = trimCR(bytes, pos, eol);
+        command = StompSymbols.command(bytes, pos, commandEnd);
+        if (command == null) {
+            command = asciiString(bytes, pos, commandEnd);
+        }
+        pos = eol + 1;
+
+        while (pos < length) {
+            eol = lineEnd(bytes, pos, length);
+            int end = trimCR(bytes, pos, eol);
+            if (end == pos) {
+                pos = eol + 1;
+                break; // empty line, the body follows
+            }
+            int colon = pos;
+            while (colon < end && bytes[colon] != ':') {
+                colon++;
+            }
+            if (colon > pos && colon < end) {
+                addOffsets(pos, colon, colon + 1, end);
+            }
+            pos = eol + 1;
+        }
+
+        body = bytes;
+        bodyOffset = Math.min(pos, length);
+        bodyLength = length - bodyOffset;
+        bodyString = null;
+        return true;
+    }
+
+    /**
+     * Empty this frame so it can be rebuilt with new headers and body
+     */
+    /*package*/ void reset(String command) {
+        this.command = command;
+        headerCount = 0;
+        buf = null;
+        decodeError = null;
+        Arrays.fill(keys, null);
+        Arrays.fill(values, null);
+        body = EMPTY;
+        bodyOffset = 0;
+        bodyLength = 0;
+        bodyString = "";
+    }
+
+    /**
+     * Turn this frame into a placeholder for bytes that could not be decoded
+     */
+    /*package*/ void fail(String reason) {
+        command = null;
+        headerCount = 0;
+        buf = null;
+        body = EMPTY;
+        bodyOffset = 0;
+        bodyLength = 0;
+        bodyString = "";
+        decodeError = reason;
+    }
+
+    /**
+     * @return why the bytes received for this frame were rejected by the decoder, or null for a valid frame
+     */
+    public String getDecodeError() {
+        return decodeError;
+    }
+
+    public String getCommand() {
+        return command;
+    }
+
+    public void addHeader(String key, String value) {
+        ensureHeaderCapacity();
+        keys[headerCount] = key;
+        values[headerCount] = value;
+        headerCount++;
+    }
+
+    /**
+     * Remove every header with this name
+     */
+    public void removeHeader(String key) {
+        int kept = 0;
+        for (int i = 0; i < headerCount; i++) {
+            if (keyEquals(i, key)) {
+                continue;
+            }
+            if (kept != i) {
+                keys[kept] = keys[i];
+                values[kept] = values[i];
+                System.arraycopy(offsets, i * 4, offsets, kept * 4, 4);
+            }
+            kept++;
+        }
+        Arrays.fill(keys, kept, headerCount, null);
+        Arrays.fill(values, kept, headerCount, null);
+        headerCount = kept;
+    }
+
+    /**
+     * @return the value of the first header with this name, or null if there is none
+     */
+    public String getHeader(String key) {
+        for (int i = 0; i < headerCount; i++) {
+            if (keyEquals(i, key)) {
+                return value(i);
+            }
+        }
+        return null;
+    }
+
+    public int headerCount() {
+        return headerCount;
+    }
+
+    public String headerKey(int index) {
+        if (keys[index] == null) {
+            int start = offsets[index * 4];
+            int end = offsets[index * 4 + 1];
+            String key = StompSymbols.headerName(buf, start, end);
+            keys[index] = key != null ? key : utf8String(buf, start, end);
+        }
+        return keys[index];
+    }
+
+    public String headerValue(int index) {
+        return value(index);
+    }
+
+    public void setBody(String body) {
+        this.bodyString = body != null ? body : "";
+        this.body = bodyString.getBytes(StandardCharsets.UTF_8);
+        this.bodyOffset = 0;
+        this.bodyLength = this.body.length;
+    }
+
+    /**
+     * Use a slice of a byte array as the body, the array is shared and must not change afterwards
+     */
+    public void setBody(byte[] body, int offset, int length) {
+        this.body = body;
+        this.bodyOffset = offset;
+        this.bodyLength = length;
+        this.bodyString = null;
+    }
+
+    /**
+     * @return the body decoded as UTF-8, decoded once on first access
+     */
+    public String getBody() {
+        if (bodyString == null) {
+            bodyString = utf8String(body, bodyOffset, bodyOffset + bodyLength);
+        }
+        return bodyString;
+    }
+
+    public byte[] bodyArray() {
+        return body;
+    }
+
+    public int bodyOffset() {
+        return bodyOffset;
+    }
+
+    public int bodyLength() {
+        return bodyLength;
+    }
+
+    /**
+     * @return a copy of the body bytes that does not depend on the decoder's buffer
+     */
+    public byte[] copyBody() {
+        return Arrays.copyOfRange(body, bodyOffset, bodyOffset + bodyLength);
+    }
+
+    /**
+     * @return a copy of this frame with the same command and headers and the given body
+     */
+    public StompFrame withBody(String body) {
+        StompFrame copy = copyHeaders();
+        copy.setBody(body);
+        return copy;
+    }
+
+    /**
+     * @return a copy of this frame that stays valid after the decoder moves on
+     */
+    public StompFrame copy() {
+        StompFrame copy = copyHeaders();
+        copy.setBody(copyBody(), 0, bodyLength);
+        copy.bodyString = bodyString;
+        return copy;
+    }
+
+    private StompFrame copyHeaders() {
+        StompFrame copy = new StompFrame(command);
+        for (int i = 0; i < headerCount; i++) {
+            copy.addHeader(headerKey(i), value(i));
+        }
+        return copy;
+    }
+
+    private String value(int index) {
+        if (values[index] == null) {
+            int start = offsets[index * 4 + 2];
+            int end = offsets[index * 4 + 3];
+            if (keyEquals(index, StompSymbols.DESTINATION)) {
+                if (lastDestination == null || !StompSymbols.matches(lastDestination, buf, start, end)) {
+                    lastDestination = utf8String(buf, start, end);
+                }
+                values[index] = lastDestination;
+            } else {
+                values[index] = utf8String(buf, start, end);
+            }
+        }
+        return values[index];
+    }
+
+    private boolean keyEquals(int index, String key) {
+        if (keys[index] != null) {
+            return keys[index] == key || keys[index].equals(key);
+        }
+        // compare the raw bytes, header names we look up are ASCII
+        return StompSymbols.matches(key, buf, offsets[index * 4], offsets[index * 4 + 1]);
+    }
+
+    private void addOffsets(int keyStart, int keyEnd, int valueStart, int valueEnd) {
+        ensureHeaderCapacity();
+        offsets[headerCount * 4] = keyStart;
+        offsets[headerCount * 4 + 1] = keyEnd;
+        offsets[headerCount * 4 + 2] = valueStart;
+        offsets[headerCount * 4 + 3] = valueEnd;
+        headerCount++;
+    }
+
+    private void ensureHeaderCapacity() {
+        if (headerCount == keys.length) {
+            keys = Arrays.copyOf(keys, headerCount * 2);
+            values = Arrays.copyOf(values, headerCount * 2);
+            offsets = Arrays.copyOf(offsets, headerCount * 8);
+        }
+    }
+
+    private static int lineEnd(byte[] bytes, int from, int length) {
+        int i = from;
+        while (i < length && bytes[i] != '\n') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int trimCR(byte[] bytes, int start, int end) {
+        return end > start && bytes[end - 1] == '\r' ? end - 1 : end;
+    }
+
+    private static String asciiString(byte[] bytes, int start, int end) {
+        return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+    }
+
+    private static String utf8String(byte[] bytes, int start, int end) {
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Serialize the frame, without the null terminator
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(command).append("\n");
+
+        for (int i = 0; i < headerCount; i++) {
+            sb.append(headerKey(i)).append(":").append(value(i)).append("\n");
+        }
+
+        sb.append("\n");
+        sb.append(getBody());
+        return sb.toString();
+    }
+}
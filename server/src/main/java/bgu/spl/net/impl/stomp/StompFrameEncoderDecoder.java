@@ -1,39 +1,288 @@
 package bgu.spl.net.impl.stomp;
 
 import bgu.spl.net.api.MessageEncoderDecoder;
+import bgu.spl.net.srv.TrafficCapture;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
-public class StompFrameEncoderDecoder implements MessageEncoderDecoder<String> {
-    
-    private byte[] bytes = new byte[1 << 10]; // 1KB initial buffer
+/**
+ * Streams STOMP frames in and out.
+ * Frames whose headers declare a content-length are read by length, so their body may contain null bytes;
+ * other frames end at the first null byte. Frames larger than the configured maximum are rejected with a
+ * malformed frame (see {@link StompFrame#getDecodeError()}) and skipped up to their terminator.
+ */
+public class StompFrameEncoderDecoder implements MessageEncoderDecoder<StompFrame>, TrafficCapture.Redacting {
+
+    public static final int DEFAULT_MAX_FRAME_SIZE = 1 << 20; // 1MB
+    private static final int INITIAL_BUFFER_SIZE = 1 << 10; // 1KB initial buffer
+    // buffers grown beyond this by a large frame are dropped back to the initial size once it was processed
+    private static final int SHRINK_THRESHOLD = 1 << 16; // 64KB
+
+    private final int maxFrameSize;
+    private byte[] bytes = new byte[INITIAL_BUFFER_SIZE];
     private int len = 0;
+    // Parsed frames point into bytes, both are reused for the next frame
+    private final StompFrame frame = new StompFrame(null);
+
+    // streaming state of the current frame
+    private int lineStart = 0;
+    private boolean sawCommand = false;
+    private int bodyStart = -1; // -1 while still reading headers
+    private int contentLength = -1; // -1 if the frame has no content-length header
+    private boolean discarding = false; // skipping the rest of a rejected frame
+
+    public StompFrameEncoderDecoder() {
+        this(DEFAULT_MAX_FRAME_SIZE);
+    }
+
+    public StompFrameEncoderDecoder(int maxFrameSize) {
+        this.maxFrameSize = maxFrameSize;
+    }
 
     @Override
-    public String decodeNextByte(byte nextByte) {
+    public StompFrame decodeNextByte(byte nextByte) {
+        if (discarding) {
+            if (nextByte == '\0') {
+                discarding = false;
+            }
+            return null;
+        }
+
+        if (len == 0 && bytes.length > SHRINK_THRESHOLD) {
+            // the previous frame has been processed, release its oversized buffer
+            bytes = new byte[INITIAL_BUFFER_SIZE];
+        }
+
+        if (contentLength >= 0 && len == bodyStart + contentLength) {
+            // the body was read by length, a null byte must follow
+            return nextByte == '\0' ? popFrame() : reject("Frame body is longer than its content-length header");
+        }
+
         // STOMP frames are terminated by null byte '\0'
-        if (nextByte == '\0') {
-            return popString();
+        if (nextByte == '\0' && contentLength < 0) {
+            return popFrame();
+        }
+
+        if (len >= maxFrameSize) {
+            return reject("Frame exceeds the maximal size of " + maxFrameSize + " bytes");
         }
 
         // Expand buffer if needed
         if (len >= bytes.length) {
-            bytes = Arrays.copyOf(bytes, len * 2);
+            bytes = Arrays.copyOf(bytes, Math.min(len * 2, maxFrameSize));
         }
 
         bytes[len++] = nextByte;
+
+        if (nextByte == '\n' && bodyStart < 0) {
+            return endOfLine();
+        }
         return null; // Frame not complete yet
     }
 
+    /**
+     * Track the header section, once it ends look for a content-length header
+     */
+    private StompFrame endOfLine() {
+        int end = len - 1;
+        if (end > lineStart && bytes[end - 1] == '\r') {
+            end--;
+        }
+        boolean empty = end == lineStart;
+        lineStart = len;
+
+        if (!sawCommand) {
+            // heart-beats and stray EOLs may precede the command, no need to keep them
+            sawCommand = !empty;
+            if (empty) {
+                len = 0;
+                lineStart = 0;
+            }
+        } else if (empty) {
+            bodyStart = len;
+            contentLength = findContentLength();
+            if (contentLength == -2) {
+                return reject("Invalid content-length header");
+            }
+            if (contentLength >= 0 && (long) bodyStart + contentLength > maxFrameSize) {
+                return reject("Frame exceeds the maximal size of " + maxFrameSize + " bytes");
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the value of the first content-length header, -1 if there is none, -2 if it is not a valid length
+     */
+    private int findContentLength() {
+        byte[] name = CONTENT_LENGTH;
+        int pos = 0;
+        while (pos < bodyStart) {
+            int eol = pos;
+            while (eol < bodyStart && bytes[eol] != '\n') {
+                eol++;
+            }
+            if (eol - pos > name.length && bytes[pos + name.length] == ':' && startsWith(pos, name)) {
+                long value = 0;
+                int digits = 0;
+                for (int i = pos + name.length + 1; i < eol && bytes[i] != '\r'; i++) {
+                    if (bytes[i] < '0' || bytes[i] > '9' || ++digits > 10) {
+                        return -2;
+                    }
+                    value = value * 10 + (bytes[i] - '0');
+                }
+                return digits == 0 || value > Integer.MAX_VALUE ? -2 : (int) value;
+            }
+            pos = eol + 1;
+        }
+        return -1;
+    }
+
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes(StandardCharsets.US_ASCII);
+
+    private boolean startsWith(int pos, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes[pos + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
-    public byte[] encode(String message) {
+    public TrafficCapture.Redactor redactor() {
+        return PasscodeRedactor.text();
+    }
+
+    @Override
+    public byte[] encode(StompFrame message) {
+        byte[] command = message.getCommand().getBytes(StandardCharsets.UTF_8);
+        byte[][] headers = new byte[message.headerCount() * 2][];
+        int size = command.length + 1;
+        for (int i = 0; i < message.headerCount(); i++) {
+            headers[i * 2] = message.headerKey(i).getBytes(StandardCharsets.UTF_8);
+            headers[i * 2 + 1] = message.headerValue(i).getBytes(StandardCharsets.UTF_8);
+            size += headers[i * 2].length + headers[i * 2 + 1].length + 2;
+        }
+        size += 1 + message.bodyLength() + 1;
+
+        byte[] result = new byte[size];
+        int pos = put(result, 0, command);
+        result[pos++] = '\n';
+        for (int i = 0; i < headers.length; i += 2) {
+            pos = put(result, pos, headers[i]);
+            result[pos++] = ':';
+            pos = put(result, pos, headers[i + 1]);
+            result[pos++] = '\n';
+        }
+        result[pos++] = '\n';
+        System.arraycopy(message.bodyArray(), message.bodyOffset(), result, pos, message.bodyLength());
         // STOMP frames are terminated with null byte
-        return (message + '\0').getBytes(StandardCharsets.UTF_8);
+        result[size - 1] = '\0';
+        StompMetrics.frameOut(message.getCommand());
+        return result;
+    }
+
+    @Override
+    public boolean encode(StompFrame message, ByteBuffer out) {
+        int start = out.position();
+        try {
+            putUtf8(out, message.getCommand());
+            out.put((byte) '\n');
+            for (int i = 0; i < message.headerCount(); i++) {
+                putUtf8(out, message.headerKey(i));
+                out.put((byte) ':');
+                putUtf8(out, message.headerValue(i));
+                out.put((byte) '\n');
+            }
+            out.put((byte) '\n');
+            out.put(message.bodyArray(), message.bodyOffset(), message.bodyLength());
+            // STOMP frames are terminated with null byte
+            out.put((byte) '\0');
+            StompMetrics.frameOut(message.getCommand());
+            return true;
+        } catch (BufferOverflowException ex) {
+            out.position(start);
+            return false;
+        }
     }
 
-    private String popString() {
-        String result = new String(bytes, 0, len, StandardCharsets.UTF_8);
+    /**
+     * Write the UTF-8 encoding of a string without creating an intermediate byte array
+     */
+    /*package*/ static void putUtf8(ByteBuffer out, String str) {
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < str.length()) {
+                int cp = Character.toCodePoint(c, str.charAt(++i));
+                out.put((byte) (0xF0 | (cp >> 18)));
+                out.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                out.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (cp & 0x3F)));
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes {@link #putUtf8} writes for a string
+     */
+    /*package*/ static int utf8Length(String str) {
+        int length = 0;
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < str.length()) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static int put(byte[] dest, int pos, byte[] src) {
+        System.arraycopy(src, 0, dest, pos, src.length);
+        return pos + src.length;
+    }
+
+    private StompFrame popFrame() {
+        int length = len;
+        reset();
+        // A lone terminator (or EOLs only) is not a frame
+        return frame.wrap(bytes, length) ? frame : null;
+    }
+
+    /**
+     * Drop the current frame, skip its remaining bytes and report it as malformed
+     */
+    private StompFrame reject(String reason) {
+        // skip the rest of the frame, up to its terminator
+        discarding = true;
+        reset();
+        frame.fail(reason);
+        return frame;
+    }
+
+    private void reset() {
         len = 0;
-        return result;
+        lineStart = 0;
+        sawCommand = false;
+        bodyStart = -1;
+        contentLength = -1;
     }
 }
@@ -3,29 +3,67 @@ package bgu.spl.net.impl.stomp;
 import bgu.spl.net.api.StompMessagingProtocol;
 import bgu.spl.net.impl.data.Database;
 import bgu.spl.net.impl.data.LoginStatus;
+import bgu.spl.net.log.Level;
+import bgu.spl.net.log.Log;
+import bgu.spl.net.log.Logger;
+import bgu.spl.net.metrics.FanOutEvent;
+import bgu.spl.net.metrics.FrameEvent;
+import bgu.spl.net.srv.AckMode;
 import bgu.spl.net.srv.Connections;
 import bgu.spl.net.srv.ConnectionsImpl;
-
+import bgu.spl.net.srv.DeliveryWindow;
+import bgu.spl.net.srv.Destination;
+import bgu.spl.net.srv.Subscription;
+import bgu.spl.net.srv.TopicTrie;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.Set;
+
+public class StompMessagingProtocolImpl implements StompMessagingProtocol<StompFrame> {
+
+    private static final Logger log = Log.getLogger(StompMessagingProtocolImpl.class);
+
+    /**
+     * Maximal size of the SEND bodies a single transaction may buffer
+     */
+    public static final int MAX_TRANSACTION_BYTES = 1 << 20; // 1MB
 
-public class StompMessagingProtocolImpl implements StompMessagingProtocol<String> {
+    /**
+     * Line separating the event bodies of a batch SEND that has no batch-boundary header
+     */
+    public static final String DEFAULT_BATCH_BOUNDARY = "---";
 
     private int connectionId;
-    private ConnectionsImpl<String> connections;
+    private ConnectionsImpl<StompFrame> connections;
     private boolean shouldTerminate = false;
     private Database database;
+    private GameStates gameStates;
+    // handle of the destination this client sent to last, clients usually keep reporting to one game
+    private Destination lastDestination;
     private boolean isLoggedIn = false;
+    // deflates bodies this client publishes, once for all subscribers that accept it
+    private final BodyCompressor compressor = new BodyCompressor();
 
     // Map subscription ID to channel/destination
     private final Map<String, String> subscriptions = new HashMap<>();
 
+    // Map transaction ID to the SENDs buffered under it
+    private final Map<String, Transaction> transactions = new HashMap<>();
+
     @Override
-    public void start(int connectionId, Connections<String> connections) {
+    public void start(int connectionId, Connections<StompFrame> connections) {
         this.connectionId = connectionId;
-        this.connections = (ConnectionsImpl<String>) connections;
+        this.connections = (ConnectionsImpl<StompFrame>) connections;
         this.database = Database.getInstance();
+        this.gameStates = GameStates.getInstance();
     }
 
     @Override
@@ -34,9 +72,32 @@ public class StompMessagingProtocolImpl implements StompMessagingProtocol<String
     }
 
     @Override
-    public void process(String msg) {
-        System.out.println("Processing message:\n" + msg);
-        StompFrame frame = StompFrame.parse(msg);
+    public void process(StompFrame frame) {
+        FrameEvent event = new FrameEvent();
+        event.begin();
+        dispatch(frame);
+        event.end();
+        if (event.shouldCommit()) {
+            event.connectionId = connectionId;
+            event.command = frame.getCommand();
+            event.destination = frame.getHeader("destination");
+            event.commit();
+        }
+    }
+
+    private void dispatch(StompFrame frame) {
+        StompMetrics.frameIn(frame.getCommand());
+        if (frame.getDecodeError() != null) {
+            sendError("Malformed frame", frame.getDecodeError());
+            return;
+        }
+
+        // the frame is reused by the decoder, only Strings may be handed to the log
+        if (log.isEnabled(Level.TRACE)) {
+            log.trace("Processing message from connection {}:\n{}", connectionId, frame.toString());
+        } else if (log.isEnabled(Level.DEBUG)) {
+            log.debug("Processing {} from connection {}", frame.getCommand(), connectionId);
+        }
 
         switch (frame.getCommand()) {
             case "CONNECT":
@@ -51,6 +112,21 @@ public class StompMessagingProtocolImpl implements StompMessagingProtocol<String
             case "SEND":
                 handleSend(frame);
                 break;
+            case "ACK":
+                handleAck(frame, true);
+                break;
+            case "NACK":
+                handleAck(frame, false);
+                break;
+            case "BEGIN":
+                handleBegin(frame);
+                break;
+            case "COMMIT":
+                handleCommit(frame);
+                break;
+            case "ABORT":
+                handleAbort(frame);
+                break;
             case "DISCONNECT":
                 handleDisconnect(frame);
                 break;
@@ -77,7 +153,11 @@ public class StompMessagingProtocolImpl implements StompMessagingProtocol<String
 
             StompFrame response = new StompFrame("CONNECTED");
             response.addHeader("version", "1.2");
-            connections.send(connectionId, response.toString());
+            if (BodyCompressor.accepts(frame.getHeader("accept-encoding"))) {
+                connections.enableCompression(connectionId);
+                response.addHeader("accept-encoding", BodyCompressor.ENCODING);
+            }
+            connections.send(connectionId, response);
         } else {
             String errorMsg = getLoginErrorMessage(status);
             sendError(errorMsg, "");
@@ -99,13 +179,71 @@ public class StompMessagingProtocolImpl implements StompMessagingProtocol<String
             return;
         }
 
+        AckMode ackMode = AckMode.fromHeader(frame.getHeader("ack"));
+        if (ackMode == null) {
+            sendError("Unsupported ack mode", frame.getHeader("ack"));
+            return;
+        }
+
+        int prefetch = Subscription.DEFAULT_PREFETCH;
+        String prefetchHeader = frame.getHeader("prefetch-count");
+        if (prefetchHeader != null) {
+            try {
+                prefetch = Integer.parseInt(prefetchHeader.trim());
+            } catch (NumberFormatException e) {
+                prefetch = 0;
+            }
+            if (prefetch <= 0) {
+                sendError("Invalid prefetch-count header", prefetchHeader);
+                return;
+            }
+        }
+
+        EventSelector selector = null;
+        String selectorHeader = frame.getHeader("selector");
+        if (selectorHeader != null) {
+            try {
+                selector = EventSelector.compile(selectorHeader);
+            } catch (IllegalArgumentException e) {
+                sendError("Invalid selector", e.getMessage());
+                return;
+            }
+        }
+
         subscriptions.put(id, destination);
-        connections.subscribe(destination, connectionId, id);
+        Subscription subscription = new Subscription(id, destination, connectionId, ackMode, prefetch, selector);
+        connections.subscribe(subscription);
 
         String receiptId = frame.getHeader("receipt");
         if (receiptId != null) {
             sendReceipt(receiptId);
         }
+
+        if ("true".equals(frame.getHeader("snapshot")) && !TopicTrie.isPattern(destination)) {
+            sendSnapshot(subscription);
+        }
+    }
+
+    /**
+     * Send a late subscriber the current state of the game as a single MESSAGE
+     */
+    private void sendSnapshot(Subscription sub) {
+        String snapshot = gameStates.snapshot(sub.getChannel());
+        if (snapshot == null) {
+            return;
+        }
+
+        String messageId = connections.nextMessageId();
+        StompFrame messageFrame = new StompFrame("MESSAGE");
+        messageFrame.addHeader("subscription", sub.getSubscriptionId());
+        messageFrame.addHeader("message-id", messageId);
+        messageFrame.addHeader("destination", sub.getChannel());
+        messageFrame.addHeader("snapshot", "true");
+        if (sub.getAckMode() != AckMode.AUTO) {
+            messageFrame.addHeader("ack", messageId);
+        }
+        messageFrame.setBody(snapshot);
+        deliver(sub, messageId, messageFrame);
     }
 
     private void handleUnsubscribe(StompFrame frame) {
@@ -123,7 +261,8 @@ public class StompMessagingProtocolImpl implements StompMessagingProtocol<String
 
         String destination = subscriptions.remove(id);
         if (destination != null) {
-            connections.unsubscribe(destination, connectionId);
+            connections.unsubscribe(connectionId, id);
+            forgetUnwatchedState(destination);
         }
 
         String receiptId = frame.getHeader("receipt");
@@ -139,35 +278,422 @@ public class StompMessagingProtocolImpl implements StompMessagingProtocol<String
         }
 
         String destination = frame.getHeader("destination");
-        String fileName = frame.getHeader("file-name");
-        String userName = frame.getHeader("user-name");
-        database.trackFileUpload(userName, fileName, destination);
 
         if (destination == null) {
             sendError("Missing destination header", "");
             return;
         }
 
-        // Get all subscribers for this channel
-        CopyOnWriteArraySet<Integer> subscribers = connections.getSubscribers(destination);
-        if (subscribers != null) {
-            String messageId = String.valueOf(System.currentTimeMillis());
+        if (TopicTrie.isPattern(destination)) {
+            sendError("Cannot send to a wildcard destination", destination);
+            return;
+        }
+
+        List<StompFrame> events = null;
+        if (frame.getHeader("batch-count") != null) {
+            events = splitBatch(frame);
+            if (events == null) {
+                sendError("Malformed batch", "batch-count does not match the batch-boundary separated bodies");
+                return;
+            }
+        }
+
+        String transactionId = frame.getHeader("transaction");
+        if (transactionId != null) {
+            Transaction transaction = transactions.get(transactionId);
+            if (transaction == null) {
+                sendError("Unknown transaction", transactionId);
+                return;
+            }
+            // The decoder reuses the frame, keep a copy of it until the commit
+            if (!transaction.add(events != null ? events : Collections.singletonList(frame.copy()))) {
+                transactions.remove(transactionId);
+                sendError("Transaction too large", "Transaction " + transactionId + " exceeded " + MAX_TRANSACTION_BYTES + " bytes");
+                return;
+            }
+        } else if (events != null) {
+            // One file upload per batch, however many events it carries
+            trackFileUpload(frame);
+            publishBatch(events);
+        } else {
+            trackFileUpload(frame);
+            publish(frame);
+        }
+
+        String receiptId = frame.getHeader("receipt");
+        if (receiptId != null) {
+            sendReceipt(receiptId);
+        }
+    }
+
+    /**
+     * Split a batch SEND into one SEND per event.
+     * The body holds batch-count event bodies separated by lines equal to the batch-boundary header
+     * (default "---").
+     * @return the events, or null if the body does not match the declared count
+     */
+    private List<StompFrame> splitBatch(StompFrame frame) {
+        int count;
+        try {
+            count = Integer.parseInt(frame.getHeader("batch-count").trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (count <= 0) {
+            return null;
+        }
+
+        String boundary = frame.getHeader("batch-boundary");
+        String separator = "\n" + (boundary != null ? boundary : DEFAULT_BATCH_BOUNDARY) + "\n";
+        String body = frame.getBody();
+
+        List<StompFrame> events = new ArrayList<>(count);
+        int start = 0;
+        while (events.size() < count - 1) {
+            int end = body.indexOf(separator, start);
+            if (end < 0) {
+                return null;
+            }
+            events.add(event(frame, body.substring(start, end)));
+            start = end + separator.length();
+        }
+        if (body.indexOf(separator, start) >= 0) {
+            return null;
+        }
+        events.add(event(frame, body.substring(start)));
+        return events;
+    }
+
+    /**
+     * One event of a batch SEND, without the headers describing the whole batch
+     */
+    private static StompFrame event(StompFrame batch, String body) {
+        StompFrame event = batch.withBody(body);
+        event.removeHeader("content-length");
+        event.removeHeader("batch-count");
+        event.removeHeader("batch-boundary");
+        return event;
+    }
+
+    private void trackFileUpload(StompFrame frame) {
+        String destination = frame.getHeader("destination");
+        String fileName = frame.getHeader("file-name");
+        String userName = frame.getHeader("user-name");
+        database.trackFileUpload(userName, fileName, destination);
+    }
+
+    /**
+     * Fan a single SEND out to every subscriber of its destination
+     */
+    private void publish(StompFrame frame) {
+        String destination = frame.getHeader("destination");
+
+        // Get all subscriptions matching this channel
+        Collection<Subscription> subscriptions = connections.getSubscriptions(destination(destination));
+        Map<String, String> fields = null;
+        if (!subscriptions.isEmpty() && GameStates.isGameChannel(destination)) {
+            fields = EventSelector.parseFields(frame.getBody());
+            gameStates.update(destination, fields);
+        }
+        FanOutEvent event = new FanOutEvent();
+        event.begin();
+        int delivered = 0;
+        long bytes = 0;
+        if (!subscriptions.isEmpty()) {
+            String messageId = connections.nextMessageId();
+            Payload payload = new Payload(frame);
             
-            for (Integer subscriberId : subscribers) {
-                // Get the subscription ID for this specific subscriber
-                String subId = connections.getSubscriptionId(subscriberId, destination);
-                if (subId != null) {
-                    // Create MESSAGE frame with correct subscription ID
-                    StompFrame messageFrame = new StompFrame("MESSAGE");
-                    messageFrame.addHeader("subscription", subId);
-                    messageFrame.addHeader("message-id", messageId);
-                    messageFrame.addHeader("destination", destination);
-                    messageFrame.setBody(frame.getBody());
-                    
-                    // Send to this subscriber
-                    connections.send(subscriberId, messageFrame.toString());
+            for (Subscription sub : subscriptions) {
+                if (sub.getSelector() != null) {
+                    fields = fields(frame, fields);
+                }
+                if (matches(sub, fields)) {
+                    // Send to this subscriber, or hold it while its window is full
+                    StompFrame message = payload.messageFor(sub, messageId, destination);
+                    bytes += message.bodyLength();
+                    deliver(sub, messageId, message);
+                    delivered++;
+                }
+            }
+        }
+        StompMetrics.FANOUT.record(delivered);
+        fannedOut(event, destination, delivered, bytes);
+    }
+
+    /**
+     * Fan several SENDs out together, every subscriber gets all of its frames in a single write
+     */
+    private void publishBatch(List<StompFrame> frames) {
+        Map<Integer, List<StompFrame>> batches = new LinkedHashMap<>();
+
+        for (StompFrame frame : frames) {
+            String destination = frame.getHeader("destination");
+            Collection<Subscription> subscriptions = connections.getSubscriptions(destination(destination));
+            if (subscriptions.isEmpty()) {
+                StompMetrics.FANOUT.record(0);
+                continue;
+            }
+            Map<String, String> fields = null;
+            if (GameStates.isGameChannel(destination)) {
+                fields = EventSelector.parseFields(frame.getBody());
+                gameStates.update(destination, fields);
+            }
+
+            // the event covers building the messages, they are written together after the loop
+            FanOutEvent event = new FanOutEvent();
+            event.begin();
+            String messageId = connections.nextMessageId();
+            Payload payload = new Payload(frame);
+            int delivered = 0;
+            long bytes = 0;
+            for (Subscription sub : subscriptions) {
+                if (sub.getSelector() != null) {
+                    fields = fields(frame, fields);
+                }
+                if (matches(sub, fields)) {
+                    StompFrame message = payload.messageFor(sub, messageId, destination);
+                    bytes += message.bodyLength();
+                    DeliveryWindow.Admission admission = connections.admit(sub, messageId, message);
+                    if (admission == DeliveryWindow.Admission.WRITE) {
+                        batches.computeIfAbsent(sub.getConnectionId(), k -> new ArrayList<>()).add(message);
+                    } else if (admission == DeliveryWindow.Admission.OVERFLOW) {
+                        disconnectSlowConsumer(sub);
+                    }
+                    delivered++;
+                }
+            }
+            StompMetrics.FANOUT.record(delivered);
+            fannedOut(event, destination, delivered, bytes);
+        }
+
+        for (Map.Entry<Integer, List<StompFrame>> batch : batches.entrySet()) {
+            connections.sendAll(batch.getKey(), batch.getValue());
+        }
+    }
+
+    /**
+     * Deliver a message on a subscription, see {@link ConnectionsImpl#deliver}
+     */
+    private void deliver(Subscription sub, String messageId, StompFrame message) {
+        if (connections.deliver(sub, messageId, message) == DeliveryWindow.Admission.OVERFLOW) {
+            disconnectSlowConsumer(sub);
+        }
+    }
+
+    /**
+     * A client-ack subscriber stopped acknowledging until its held messages reached the maximum.
+     * Its messages are not dropped behind its back, it gets an ERROR and is disconnected.
+     */
+    private void disconnectSlowConsumer(Subscription sub) {
+        int slowConnectionId = sub.getConnectionId();
+        log.warn("Disconnecting connection {}, subscription {} stopped acknowledging", slowConnectionId,
+                sub.getSubscriptionId());
+        StompFrame error = new StompFrame("ERROR");
+        error.addHeader("message", "Slow consumer");
+        error.setBody("Too many unacknowledged messages on subscription " + sub.getSubscriptionId());
+        connections.send(slowConnectionId, error);
+        database.logout(slowConnectionId);
+        connections.disconnect(slowConnectionId);
+    }
+
+    private static void fannedOut(FanOutEvent event, String destination, int recipients, long bytes) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.destination = destination;
+            event.recipients = recipients;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    /**
+     * Resolve a destination name to its canonical handle.
+     * The decoder hands out the same String while a client keeps sending to one destination,
+     * so the common case is a single identity check.
+     */
+    private Destination destination(String name) {
+        if (lastDestination == null || lastDestination.getName() != name) {
+            lastDestination = connections.destination(name);
+        }
+        return lastDestination;
+    }
+
+    /**
+     * The fields of a SEND's event, parsed only once a subscriber's selector or the game state needs them:
+     * most SENDs reach neither, and parsing decodes the whole body
+     */
+    private static Map<String, String> fields(StompFrame frame, Map<String, String> parsed) {
+        return parsed != null ? parsed : EventSelector.parseFields(frame.getBody());
+    }
+
+    private static boolean matches(Subscription sub, Map<String, String> fields) {
+        return sub.getSelector() == null || sub.getSelector().test(fields);
+    }
+
+    /**
+     * The body of a SEND as it is fanned out to subscribers.
+     * The bytes are copied out of the decoder once and shared by the messages of all subscribers,
+     * the deflated form is computed on the first subscriber that accepts it and shared as well.
+     */
+    private class Payload {
+        private final byte[] body;
+        // content-length of the body sent, set when the SEND had one or the body holds null bytes, which text
+        // clients must then read by length. It is the length of these bytes, never the SEND's header, which may
+        // describe another body. Binary clients send no content-length, their bodies are raw.
+        private final String contentLength;
+        private byte[] deflated;
+        private boolean deflateTried = false;
+
+        Payload(StompFrame frame) {
+            this.body = frame.copyBody();
+            this.contentLength = frame.getHeader("content-length") != null || containsNul(body)
+                    ? String.valueOf(body.length) : null;
+        }
+
+        private boolean containsNul(byte[] bytes) {
+            for (byte b : bytes) {
+                if (b == 0) {
+                    return true;
                 }
             }
+            return false;
+        }
+
+        /**
+         * Create the MESSAGE frame a subscription receives for this SEND
+         */
+        StompFrame messageFor(Subscription sub, String messageId, String destination) {
+            StompFrame messageFrame = new StompFrame("MESSAGE");
+            messageFrame.addHeader("subscription", sub.getSubscriptionId());
+            messageFrame.addHeader("message-id", messageId);
+            messageFrame.addHeader("destination", destination);
+            if (sub.getAckMode() != AckMode.AUTO) {
+                messageFrame.addHeader("ack", messageId);
+            }
+
+            byte[] compressed = connections.acceptsCompression(sub.getConnectionId()) ? deflated() : null;
+            if (compressed != null) {
+                messageFrame.setBody(compressed, 0, compressed.length);
+                messageFrame.addHeader("content-encoding", BodyCompressor.ENCODING);
+                messageFrame.addHeader("content-length", String.valueOf(compressed.length));
+            } else {
+                messageFrame.setBody(body, 0, body.length);
+                if (contentLength != null) {
+                    messageFrame.addHeader("content-length", contentLength);
+                }
+            }
+            return messageFrame;
+        }
+
+        private byte[] deflated() {
+            if (!deflateTried) {
+                deflated = compressor.deflate(body);
+                deflateTried = true;
+            }
+            return deflated;
+        }
+    }
+
+    private void handleBegin(StompFrame frame) {
+        if (!isLoggedIn) {
+            sendError("Not connected", "");
+            return;
+        }
+
+        String transactionId = frame.getHeader("transaction");
+
+        if (transactionId == null) {
+            sendError("Missing transaction header", "");
+            return;
+        }
+
+        if (transactions.containsKey(transactionId)) {
+            sendError("Transaction already started", transactionId);
+            return;
+        }
+
+        transactions.put(transactionId, new Transaction());
+
+        String receiptId = frame.getHeader("receipt");
+        if (receiptId != null) {
+            sendReceipt(receiptId);
+        }
+    }
+
+    private void handleCommit(StompFrame frame) {
+        Transaction transaction = endTransaction(frame);
+        if (transaction == null) {
+            return;
+        }
+
+        // Batches and repeated SENDs of the same file are tracked as a single upload
+        Set<List<String>> uploads = new LinkedHashSet<>();
+        for (StompFrame send : transaction.sends) {
+            if (uploads.add(Arrays.asList(send.getHeader("user-name"), send.getHeader("file-name"), send.getHeader("destination")))) {
+                trackFileUpload(send);
+            }
+        }
+        publishBatch(transaction.sends);
+
+        String receiptId = frame.getHeader("receipt");
+        if (receiptId != null) {
+            sendReceipt(receiptId);
+        }
+    }
+
+    private void handleAbort(StompFrame frame) {
+        if (endTransaction(frame) == null) {
+            return;
+        }
+
+        String receiptId = frame.getHeader("receipt");
+        if (receiptId != null) {
+            sendReceipt(receiptId);
+        }
+    }
+
+    /**
+     * Remove the transaction named by the frame
+     * @return the removed transaction, or null if an error was sent instead
+     */
+    private Transaction endTransaction(StompFrame frame) {
+        if (!isLoggedIn) {
+            sendError("Not connected", "");
+            return null;
+        }
+
+        String transactionId = frame.getHeader("transaction");
+
+        if (transactionId == null) {
+            sendError("Missing transaction header", "");
+            return null;
+        }
+
+        Transaction transaction = transactions.remove(transactionId);
+        if (transaction == null) {
+            sendError("Unknown transaction", transactionId);
+        }
+        return transaction;
+    }
+
+    private void handleAck(StompFrame frame, boolean accepted) {
+        if (!isLoggedIn) {
+            sendError("Not connected", "");
+            return;
+        }
+
+        String id = frame.getHeader("id");
+
+        if (id == null) {
+            sendError("Missing id header", "");
+            return;
+        }
+
+        // Unknown ids were already settled by an earlier cumulative ACK, nothing to do
+        if (accepted) {
+            connections.ack(connectionId, id);
+        } else {
+            connections.nack(connectionId, id);
         }
 
         String receiptId = frame.getHeader("receipt");
@@ -182,30 +708,54 @@ public class StompMessagingProtocolImpl implements StompMessagingProtocol<String
             sendReceipt(receiptId);
         }
 
+        // Transactions that were not committed are aborted
+        transactions.clear();
+        compressor.close();
+
         if (isLoggedIn) {
             database.logout(connectionId);
             isLoggedIn = false;
         }
 
         shouldTerminate = true;
+        disconnect();
+    }
+
+    /**
+     * Close the connection and drop the game states only its subscriptions kept
+     */
+    private void disconnect() {
         connections.disconnect(connectionId);
+        for (String destination : subscriptions.values()) {
+            forgetUnwatchedState(destination);
+        }
+        subscriptions.clear();
+    }
+
+    /**
+     * Drop the game state of a destination nobody is subscribed to anymore
+     */
+    private void forgetUnwatchedState(String destination) {
+        if (GameStates.isGameChannel(destination) && connections.getSubscriptions(destination).isEmpty()) {
+            gameStates.remove(destination);
+        }
     }
 
     private void sendReceipt(String receiptId) {
         StompFrame receipt = new StompFrame("RECEIPT");
         receipt.addHeader("receipt-id", receiptId);
-        connections.send(connectionId, receipt.toString());
+        connections.send(connectionId, receipt);
     }
 
     private void sendError(String message, String details) {
         StompFrame error = new StompFrame("ERROR");
         error.addHeader("message", message);
         error.setBody(details);
-        connections.send(connectionId, error.toString());
+        connections.send(connectionId, error);
         
         // Per STOMP protocol, server must close connection after sending ERROR
         shouldTerminate = true;
-        connections.disconnect(connectionId);
+        disconnect();
     }
 
     private String getLoginErrorMessage(LoginStatus status) {
@@ -222,94 +772,24 @@ public class StompMessagingProtocolImpl implements StompMessagingProtocol<String
     }
 
     /**
-     * Helper class to parse and build STOMP frames
+     * SENDs buffered under a transaction until it is committed
      */
-    private static class StompFrame {
-        private String command;
-        private final Map<String, String> headers = new HashMap<>();
-        private String body = "";
-
-        public StompFrame(String command) {
-            this.command = command;
-        }
-
-        public String getCommand() {
-            return command;
-        }
-
-        public void addHeader(String key, String value) {
-            headers.put(key, value);
-        }
-
-        public String getHeader(String key) {
-            return headers.get(key);
-        }
-
-        public void setBody(String body) {
-            this.body = body != null ? body : "";
-        }
-
-        public String getBody() {
-            return body;
-        }
-
-        public static StompFrame parse(String frameString) {
-            String[] lines = frameString.split("\n", -1);
-
-            if (lines.length == 0) {
-                throw new IllegalArgumentException("Empty frame");
+    private static class Transaction {
+        private final List<StompFrame> sends = new ArrayList<>();
+        private int bytes = 0;
+
+        /**
+         * @return false if the frames do not fit in the transaction's size limit
+         */
+        public boolean add(List<StompFrame> frames) {
+            for (StompFrame frame : frames) {
+                bytes += frame.bodyLength();
             }
-
-            StompFrame frame = new StompFrame(lines[0]);
-
-            int i = 1;
-            // Parse headers
-            while (i < lines.length && !lines[i].isEmpty()) {
-                String line = lines[i];
-                int colonIndex = line.indexOf(':');
-                if (colonIndex > 0) {
-                    String key = line.substring(0, colonIndex);
-                    String value = line.substring(colonIndex + 1);
-                    frame.addHeader(key, value);
-                }
-                i++;
-            }
-
-            // Skip empty line between headers and body
-            i++;
-
-            // Parse body (everything after the empty line)
-            if (i < lines.length) {
-                StringBuilder bodyBuilder = new StringBuilder();
-                for (int j = i; j < lines.length; j++) {
-                    if (j > i)
-                        bodyBuilder.append("\n");
-                    bodyBuilder.append(lines[j]);
-                }
-                frame.setBody(bodyBuilder.toString());
+            if (bytes > MAX_TRANSACTION_BYTES) {
+                return false;
             }
-
-            return frame;
+            sends.addAll(frames);
+            return true;
         }
-
-        @Override
-        public String toString() {
-            StringBuilder sb = new StringBuilder();
-            sb.append(command).append("\n");
-
-            for (Map.Entry<String, String> entry : headers.entrySet()) {
-                sb.append(entry.getKey()).append(":").append(entry.getValue()).append("\n");
-            }
-
-            sb.append("\n");
-            
-            if (body != null && !body.isEmpty()) {
-                sb.append(body);
-            }
-            // Note: Null terminator is added by StompFrameEncoderDecoder.encode()
-
-            return sb.toString();
-        }
-
     }
-}
\ No newline at end of file
+}
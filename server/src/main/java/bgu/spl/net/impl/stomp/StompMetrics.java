@@ -0,0 +1,45 @@
+package bgu.spl.net.impl.stomp;
+
+import bgu.spl.net.metrics.Counter;
+import bgu.spl.net.metrics.Histogram;
+import bgu.spl.net.metrics.MetricsRegistry;
+
+/**
+ * Metrics of the STOMP layer.
+ * Frame counters are kept per command, indexed by the command's id in {@link StompSymbols}, so counting a
+ * frame is an array access and no map lookup. Commands the server does not know are counted under "other".
+ */
+/*package*/ final class StompMetrics {
+
+    private static final Counter[] FRAMES_IN = commandCounters("stomp.frames.in.");
+    private static final Counter[] FRAMES_OUT = commandCounters("stomp.frames.out.");
+
+    /**
+     * Number of subscribers a SEND was delivered to
+     */
+    static final Histogram FANOUT = MetricsRegistry.getInstance().histogram("stomp.fanout");
+
+    private StompMetrics() {
+    }
+
+    private static Counter[] commandCounters(String prefix) {
+        int count = 0;
+        while (StompSymbols.commandById(count + 1) != null) {
+            count++;
+        }
+        Counter[] counters = new Counter[count + 1];
+        counters[0] = MetricsRegistry.getInstance().counter(prefix + "other");
+        for (int id = 1; id <= count; id++) {
+            counters[id] = MetricsRegistry.getInstance().counter(prefix + StompSymbols.commandById(id));
+        }
+        return counters;
+    }
+
+    static void frameIn(String command) {
+        FRAMES_IN[StompSymbols.commandId(command)].increment();
+    }
+
+    static void frameOut(String command) {
+        FRAMES_OUT[StompSymbols.commandId(command)].increment();
+    }
+}
@@ -2,6 +2,8 @@ package bgu.spl.net.impl.stomp;
 
 import bgu.spl.net.api.MessagingProtocol;
 import bgu.spl.net.api.StompMessagingProtocol;
+import bgu.spl.net.log.Log;
+import bgu.spl.net.log.Logger;
 import bgu.spl.net.srv.ConnectionHandler;
 import bgu.spl.net.srv.ConnectionsImpl;
 
@@ -9,27 +11,29 @@ import bgu.spl.net.srv.ConnectionsImpl;
  * Adapter to bridge StompMessagingProtocol (which has void process) 
  * to MessagingProtocol (which returns a response)
  */
-public class StompProtocolAdapter implements MessagingProtocol<String> {
+public class StompProtocolAdapter implements MessagingProtocol<StompFrame> {
+
+    private static final Logger log = Log.getLogger(StompProtocolAdapter.class);
     
-    private final StompMessagingProtocol<String> stompProtocol;
+    private final StompMessagingProtocol<StompFrame> stompProtocol;
     private final int connectionId;
-    private final ConnectionsImpl<String> connections;
-    private ConnectionHandler<String> handler;
+    private final ConnectionsImpl<StompFrame> connections;
+    private ConnectionHandler<StompFrame> handler;
     
-    public StompProtocolAdapter(StompMessagingProtocol<String> stompProtocol, int connectionId, ConnectionsImpl<String> connections) {
+    public StompProtocolAdapter(StompMessagingProtocol<StompFrame> stompProtocol, int connectionId, ConnectionsImpl<StompFrame> connections) {
         this.stompProtocol = stompProtocol;
         this.connectionId = connectionId;
         this.connections = connections;
     }
     
-    public void setHandler(ConnectionHandler<String> handler) {
+    public void setHandler(ConnectionHandler<StompFrame> handler) {
         this.handler = handler;
         connections.addConnection(connectionId, handler);
-        System.out.println("Registered connection handler for connectionId: " + connectionId);
+        log.debug("Registered connection handler for connectionId: {}", connectionId);
     }
     
     @Override
-    public String process(String msg) {
+    public StompFrame process(StompFrame msg) {
         stompProtocol.process(msg);
         return null; // STOMP protocol sends responses through Connections interface
     }
@@ -2,45 +2,65 @@ package bgu.spl.net.impl.stomp;
 
 import bgu.spl.net.api.MessagingProtocol;
 import bgu.spl.net.srv.ConnectionsImpl;
+import bgu.spl.net.srv.Reactor;
 import bgu.spl.net.srv.Server;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class StompServer {
 
-    private static final ConnectionsImpl<String> connections = new ConnectionsImpl<>();
+    private static final ConnectionsImpl<StompFrame> connections = new ConnectionsImpl<>();
     private static final AtomicInteger connectionIdCounter = new AtomicInteger(0);
 
     public static void main(String[] args) {
         if (args.length < 1) {
-            System.err.println("Usage: java StompServer <port> [server_type]");
+            System.err.println("Usage: java StompServer <port> [server_type] [max_frame_size] [binary_port]");
             System.err.println("  server_type: tpc (thread-per-client) or reactor (default: tpc)");
+            System.err.println("  max_frame_size: largest accepted frame in bytes (default: " + StompFrameEncoderDecoder.DEFAULT_MAX_FRAME_SIZE + ")");
+            System.err.println("  binary_port: also serve clients using the binary framing on this port (default: none)");
             return;
         }
 
         int port = Integer.parseInt(args[0]);
         String serverType = args.length > 1 ? args[1] : "tpc";
+        int maxFrameSize = args.length > 2 ? Integer.parseInt(args[2]) : StompFrameEncoderDecoder.DEFAULT_MAX_FRAME_SIZE;
+        int binaryPort = args.length > 3 ? Integer.parseInt(args[3]) : -1;
 
         System.out.println("Starting STOMP Server on port " + port + " with " + serverType + " pattern");
 
         if ("reactor".equalsIgnoreCase(serverType)) {
             // Reactor pattern - multiple threads handling connections
-            Server.<String>reactor(
+            Reactor<StompFrame> reactor = new Reactor<>(
                     Runtime.getRuntime().availableProcessors(),
                     port,
                     StompServer::createProtocol,
-                    StompFrameEncoderDecoder::new
-            ).serve();
+                    () -> new StompFrameEncoderDecoder(maxFrameSize)
+            );
+            if (binaryPort >= 0) {
+                // binary clients are served by the same selector and share the channels with text clients
+                reactor.listen(binaryPort, () -> new StompBinaryEncoderDecoder(maxFrameSize));
+                System.out.println("Binary framing on port " + binaryPort);
+            }
+            reactor.serve();
         } else {
+            if (binaryPort >= 0) {
+                Server<StompFrame> binaryServer = Server.threadPerClient(
+                        binaryPort,
+                        StompServer::createProtocol,
+                        () -> new StompBinaryEncoderDecoder(maxFrameSize)
+                );
+                new Thread(binaryServer::serve).start();
+                System.out.println("Binary framing on port " + binaryPort);
+            }
             // Thread-per-client pattern (default)
-            Server.<String>threadPerClient(
+            Server.<StompFrame>threadPerClient(
                     port,
                     StompServer::createProtocol,
-                    StompFrameEncoderDecoder::new
+                    () -> new StompFrameEncoderDecoder(maxFrameSize)
             ).serve();
         }
     }
 
-    private static MessagingProtocol<String> createProtocol() {
+    private static MessagingProtocol<StompFrame> createProtocol() {
         int connectionId = connectionIdCounter.getAndIncrement();
         StompMessagingProtocolImpl protocol = new StompMessagingProtocolImpl();
         protocol.start(connectionId, connections);
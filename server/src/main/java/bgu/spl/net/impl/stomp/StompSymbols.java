@@ -0,0 +1,149 @@
+package bgu.spl.net.impl.stomp;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Symbol table of the STOMP commands and header names the server knows.
+ * The decoder resolves these tokens straight from the received bytes to the constants below, so parsing
+ * a frame does not allocate a String for them and they compare by identity.
+ * The position of a symbol in its table is also its id in {@link StompBinaryEncoderDecoder} frames, new symbols
+ * must only be appended.
+ */
+public final class StompSymbols {
+
+    public static final String CONNECT = "CONNECT";
+    public static final String STOMP = "STOMP";
+    public static final String CONNECTED = "CONNECTED";
+    public static final String SEND = "SEND";
+    public static final String SUBSCRIBE = "SUBSCRIBE";
+    public static final String UNSUBSCRIBE = "UNSUBSCRIBE";
+    public static final String ACK = "ACK";
+    public static final String NACK = "NACK";
+    public static final String BEGIN = "BEGIN";
+    public static final String COMMIT = "COMMIT";
+    public static final String ABORT = "ABORT";
+    public static final String DISCONNECT = "DISCONNECT";
+    public static final String MESSAGE = "MESSAGE";
+    public static final String RECEIPT = "RECEIPT";
+    public static final String ERROR = "ERROR";
+
+    public static final String DESTINATION = "destination";
+    public static final String ID = "id";
+    public static final String RECEIPT_HEADER = "receipt";
+    public static final String RECEIPT_ID = "receipt-id";
+    public static final String SUBSCRIPTION = "subscription";
+    public static final String MESSAGE_ID = "message-id";
+    public static final String TRANSACTION = "transaction";
+    public static final String CONTENT_LENGTH = "content-length";
+    public static final String CONTENT_TYPE = "content-type";
+    public static final String ACCEPT_VERSION = "accept-version";
+    public static final String HOST = "host";
+    public static final String LOGIN = "login";
+    public static final String PASSCODE = "passcode";
+    public static final String VERSION = "version";
+    public static final String HEART_BEAT = "heart-beat";
+    public static final String ACK_HEADER = "ack";
+    public static final String PREFETCH_COUNT = "prefetch-count";
+    public static final String SELECTOR = "selector";
+    public static final String SNAPSHOT = "snapshot";
+    public static final String BATCH_COUNT = "batch-count";
+    public static final String BATCH_BOUNDARY = "batch-boundary";
+    public static final String FILE_NAME = "file-name";
+    public static final String USER_NAME = "user-name";
+    public static final String MESSAGE_HEADER = "message";
+    public static final String ACCEPT_ENCODING = "accept-encoding";
+    public static final String CONTENT_ENCODING = "content-encoding";
+
+    private static final String[] COMMANDS = {
+            CONNECT, STOMP, CONNECTED, SEND, SUBSCRIBE, UNSUBSCRIBE, ACK, NACK,
+            BEGIN, COMMIT, ABORT, DISCONNECT, MESSAGE, RECEIPT, ERROR
+    };
+
+    private static final String[] HEADER_NAMES = {
+            DESTINATION, ID, RECEIPT_HEADER, RECEIPT_ID, SUBSCRIPTION, MESSAGE_ID, TRANSACTION,
+            CONTENT_LENGTH, CONTENT_TYPE, ACCEPT_VERSION, HOST, LOGIN, PASSCODE, VERSION, HEART_BEAT,
+            ACK_HEADER, PREFETCH_COUNT, SELECTOR, SNAPSHOT, BATCH_COUNT, BATCH_BOUNDARY, FILE_NAME,
+            USER_NAME, MESSAGE_HEADER, ACCEPT_ENCODING, CONTENT_ENCODING
+    };
+
+    private static final Map<String, Integer> COMMAND_IDS = ids(COMMANDS);
+    private static final Map<String, Integer> HEADER_IDS = ids(HEADER_NAMES);
+
+    private StompSymbols() {
+    }
+
+    private static Map<String, Integer> ids(String[] symbols) {
+        Map<String, Integer> ids = new HashMap<>();
+        for (int i = 0; i < symbols.length; i++) {
+            ids.put(symbols[i], i + 1);
+        }
+        return ids;
+    }
+
+    /**
+     * @return the binary id of a command, 0 if it is not a known command
+     */
+    public static int commandId(String command) {
+        return COMMAND_IDS.getOrDefault(command, 0);
+    }
+
+    /**
+     * @return the command with this binary id, or null if there is none
+     */
+    public static String commandById(int id) {
+        return id > 0 && id <= COMMANDS.length ? COMMANDS[id - 1] : null;
+    }
+
+    /**
+     * @return the binary id of a header name, 0 if it is not a known header
+     */
+    public static int headerId(String name) {
+        return HEADER_IDS.getOrDefault(name, 0);
+    }
+
+    /**
+     * @return the header name with this binary id, or null if there is none
+     */
+    public static String headerNameById(int id) {
+        return id > 0 && id <= HEADER_NAMES.length ? HEADER_NAMES[id - 1] : null;
+    }
+
+    /**
+     * @return the command constant spelled by bytes[start, end), or null if it is not a known command
+     */
+    public static String command(byte[] bytes, int start, int end) {
+        return lookup(COMMANDS, bytes, start, end);
+    }
+
+    /**
+     * @return the header name constant spelled by bytes[start, end), or null if it is not a known header
+     */
+    public static String headerName(byte[] bytes, int start, int end) {
+        return lookup(HEADER_NAMES, bytes, start, end);
+    }
+
+    /**
+     * @return true if bytes[start, end) hold exactly the characters of str, which must be ASCII
+     */
+    public static boolean matches(String str, byte[] bytes, int start, int end) {
+        if (end - start != str.length()) {
+            return false;
+        }
+        for (int i = 0; i < str.length(); i++) {
+            if (bytes[start + i] != str.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String lookup(String[] symbols, byte[] bytes, int start, int end) {
+        for (String symbol : symbols) {
+            if (matches(symbol, bytes, start, end)) {
+                return symbol;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,8 @@
+package bgu.spl.net.log;
+
+/**
+ * Severity of a log message, in increasing order. A logger set to a level drops the messages below it.
+ */
+public enum Level {
+    TRACE, DEBUG, INFO, WARN, ERROR, OFF
+}
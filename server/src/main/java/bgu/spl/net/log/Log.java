@@ -0,0 +1,196 @@
+package bgu.spl.net.log;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous logging of the server.
+ *
+ * Threads that log only claim a slot of a lock-free ring buffer and fill in the format and its arguments.
+ * A daemon appender thread formats the messages and writes them out, INFO and below to stdout and
+ * WARN and above to stderr. If the buffer is full the message is dropped and counted, the appender reports
+ * the number of dropped messages once it catches up.
+ *
+ * Configured with system properties:
+ * stomp.log.level (TRACE, DEBUG, INFO, WARN, ERROR or OFF, default INFO, an unknown level is reported
+ * on stderr and the default is used) and
+ * stomp.log.buffer (number of slots of the ring buffer, default 8192).
+ * The default level keeps frames out of the log, DEBUG logs their commands and TRACE their full text.
+ */
+public final class Log {
+
+    public static final Level DEFAULT_LEVEL = Level.INFO;
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    // how long the appender sleeps when it finds the buffer empty
+    private static final long IDLE_PARK_NANOS = 1_000_000; // 1ms
+
+    private static volatile Level level = parseLevel(System.getProperty("stomp.log.level"));
+    private static final RingBuffer buffer = new RingBuffer(Integer.getInteger("stomp.log.buffer", DEFAULT_BUFFER_SIZE));
+    private static final AtomicLong dropped = new AtomicLong();
+    private static final ConcurrentHashMap<String, Logger> loggers = new ConcurrentHashMap<>();
+    // appender state, only used while holding the lock of drain()
+    private static final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    private static final StringBuilder line = new StringBuilder(256);
+    private static final Date date = new Date();
+    private static long reportedDrops = 0;
+
+    private static final Thread appender = new Thread(Log::runAppender, "log-appender");
+
+    static {
+        appender.setDaemon(true);
+        appender.start();
+        // write out what is still buffered when the server exits
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "log-flush"));
+    }
+
+    private Log() {
+    }
+
+    /**
+     * A level that cannot be parsed must not keep the server from starting, every class with a logger would fail
+     * to load
+     */
+    private static Level parseLevel(String name) {
+        if (name == null) {
+            return DEFAULT_LEVEL;
+        }
+        try {
+            return Level.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown stomp.log.level " + name + ", logging at " + DEFAULT_LEVEL);
+            return DEFAULT_LEVEL;
+        }
+    }
+
+    public static Logger getLogger(Class<?> type) {
+        return getLogger(type.getSimpleName());
+    }
+
+    public static Logger getLogger(String name) {
+        return loggers.computeIfAbsent(name, Logger::new);
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel.compareTo(level) >= 0 && messageLevel != Level.OFF;
+    }
+
+    /**
+     * @return the number of messages dropped so far because the appender fell behind
+     */
+    public static long droppedCount() {
+        return dropped.get();
+    }
+
+    /*package*/ static void enqueue(Level messageLevel, String loggerName, String format, Object arg0, Object arg1, Throwable thrown) {
+        LogEvent event = buffer.claim();
+        if (event == null) {
+            dropped.incrementAndGet();
+            return;
+        }
+        event.level = messageLevel;
+        event.timeMillis = System.currentTimeMillis();
+        event.threadName = Thread.currentThread().getName();
+        event.loggerName = loggerName;
+        event.format = format;
+        event.arg0 = arg0;
+        event.arg1 = arg1;
+        event.thrown = thrown;
+        buffer.publish(event);
+    }
+
+    private static void runAppender() {
+        while (true) {
+            if (!drain()) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Write out every buffered message
+     */
+    public static void flush() {
+        drain();
+    }
+
+    /**
+     * @return true if any message was written
+     */
+    private static synchronized boolean drain() {
+        boolean wrote = false;
+        boolean wroteOut = false;
+        boolean wroteErr = false;
+        LogEvent event;
+        while ((event = buffer.poll()) != null) {
+            PrintStream stream = event.level.compareTo(Level.WARN) >= 0 ? System.err : System.out;
+            write(stream, event);
+            buffer.release(event);
+            wrote = true;
+            wroteOut |= stream == System.out;
+            wroteErr |= stream == System.err;
+        }
+
+        long drops = dropped.get();
+        if (drops != reportedDrops) {
+            date.setTime(System.currentTimeMillis());
+            System.err.println(timeFormat.format(date) + " WARN  [log-appender] Log - "
+                    + (drops - reportedDrops) + " messages dropped, the log buffer was full");
+            reportedDrops = drops;
+            wroteErr = true;
+        }
+
+        if (wroteOut) {
+            System.out.flush();
+        }
+        if (wroteErr) {
+            System.err.flush();
+        }
+        return wrote;
+    }
+
+    private static void write(PrintStream stream, LogEvent event) {
+        line.setLength(0);
+        date.setTime(event.timeMillis);
+        line.append(timeFormat.format(date)).append(' ');
+        String levelName = event.level.name();
+        line.append(levelName);
+        for (int i = levelName.length(); i < 6; i++) {
+            line.append(' ');
+        }
+        line.append('[').append(event.threadName).append("] ").append(event.loggerName).append(" - ");
+        format(line, event.format, event.arg0, event.arg1);
+        stream.println(line);
+        if (event.thrown != null) {
+            event.thrown.printStackTrace(stream);
+        }
+    }
+
+    /**
+     * Append a format, replacing its first two "{}" placeholders with the arguments
+     */
+    private static void format(StringBuilder out, String format, Object arg0, Object arg1) {
+        int argIndex = 0;
+        int start = 0;
+        int placeholder;
+        while (argIndex < 2 && (placeholder = format.indexOf("{}", start)) >= 0) {
+            out.append(format, start, placeholder).append(argIndex == 0 ? arg0 : arg1);
+            start = placeholder + 2;
+            argIndex++;
+        }
+        out.append(format, start, format.length());
+    }
+}
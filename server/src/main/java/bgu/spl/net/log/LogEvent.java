@@ -0,0 +1,29 @@
+package bgu.spl.net.log;
+
+/**
+ * A slot of the {@link RingBuffer}. Slots are allocated once and refilled for every message,
+ * the message is only formatted by the appender thread.
+ */
+/*package*/ final class LogEvent {
+
+    // position of the message this slot currently holds
+    long sequence;
+
+    Level level;
+    long timeMillis;
+    String threadName;
+    String loggerName;
+    String format;
+    Object arg0;
+    Object arg1;
+    Throwable thrown;
+
+    void clear() {
+        threadName = null;
+        loggerName = null;
+        format = null;
+        arg0 = null;
+        arg1 = null;
+        thrown = null;
+    }
+}
@@ -0,0 +1,80 @@
+package bgu.spl.net.log;
+
+/**
+ * A named source of log messages, obtained from {@link Log#getLogger(Class)}.
+ *
+ * Messages are format strings with "{}" placeholders that are only filled in by the background appender,
+ * so a call costs a level check and a slot in the ring buffer. The arguments are read later on another
+ * thread: pass immutable values (Strings, numbers) and not objects that are reused, like decoded frames.
+ * Guard calls whose arguments are expensive to compute with {@link #isEnabled(Level)}.
+ */
+public final class Logger {
+
+    private final String name;
+
+    /*package*/ Logger(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isEnabled(Level level) {
+        return Log.isEnabled(level);
+    }
+
+    public void trace(String format, Object arg0, Object arg1) {
+        log(Level.TRACE, format, arg0, arg1, null);
+    }
+
+    public void debug(String format) {
+        log(Level.DEBUG, format, null, null, null);
+    }
+
+    public void debug(String format, Object arg0) {
+        log(Level.DEBUG, format, arg0, null, null);
+    }
+
+    public void debug(String format, Object arg0, Object arg1) {
+        log(Level.DEBUG, format, arg0, arg1, null);
+    }
+
+    public void info(String format) {
+        log(Level.INFO, format, null, null, null);
+    }
+
+    public void info(String format, Object arg0) {
+        log(Level.INFO, format, arg0, null, null);
+    }
+
+    public void info(String format, Object arg0, Object arg1) {
+        log(Level.INFO, format, arg0, arg1, null);
+    }
+
+    public void warn(String format, Object arg0) {
+        log(Level.WARN, format, arg0, null, null);
+    }
+
+    public void warn(String format, Object arg0, Object arg1) {
+        log(Level.WARN, format, arg0, arg1, null);
+    }
+
+    public void warn(String message, Throwable thrown) {
+        log(Level.WARN, message, null, null, thrown);
+    }
+
+    public void error(String message, Throwable thrown) {
+        log(Level.ERROR, message, null, null, thrown);
+    }
+
+    public void error(String format, Object arg0, Throwable thrown) {
+        log(Level.ERROR, format, arg0, null, thrown);
+    }
+
+    public void log(Level level, String format, Object arg0, Object arg1, Throwable thrown) {
+        if (Log.isEnabled(level)) {
+            Log.enqueue(level, name, format, arg0, arg1, thrown);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package bgu.spl.net.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded lock-free queue of log events, with any number of producers and a single consumer.
+ * Every slot carries a sequence number telling whether it is free for the producer at a position or
+ * published for the consumer, so producers only contend on claiming a position with a CAS.
+ * When the buffer is full a message is dropped rather than blocking the thread that logs it.
+ */
+/*package*/ final class RingBuffer {
+
+    private final LogEvent[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    // next position producers claim
+    private final AtomicLong tail = new AtomicLong();
+    // next position the consumer reads, only used by the consumer thread
+    private long head = 0;
+
+    /**
+     * @param capacity number of slots, rounded up to a power of two
+     */
+    RingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        slots = new LogEvent[size];
+        sequences = new AtomicLongArray(size);
+        mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            slots[i] = new LogEvent();
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Claim the next free slot, fill it and hand it over with {@link #publish(LogEvent)}
+     * @return the slot, or null if the buffer is full
+     */
+    LogEvent claim() {
+        long pos = tail.get();
+        while (true) {
+            long diff = sequences.get((int) pos & mask) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    LogEvent event = slots[(int) pos & mask];
+                    event.sequence = pos;
+                    return event;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return null; // the consumer did not free this slot yet
+            } else {
+                pos = tail.get(); // another producer claimed it
+            }
+        }
+    }
+
+    void publish(LogEvent event) {
+        sequences.lazySet((int) event.sequence & mask, event.sequence + 1);
+    }
+
+    /**
+     * @return the next published event, to be given back with {@link #release(LogEvent)}, or null if there is none
+     */
+    LogEvent poll() {
+        int index = (int) head & mask;
+        return sequences.get(index) == head + 1 ? slots[index] : null;
+    }
+
+    void release(LogEvent event) {
+        event.clear();
+        sequences.lazySet((int) head & mask, head + slots.length);
+        head++;
+    }
+}
@@ -0,0 +1,38 @@
+package bgu.spl.net.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count, cheap to update from many threads at once
+ */
+public final class Counter implements CounterMBean {
+
+    private final String name;
+    private final LongAdder count = new LongAdder();
+
+    /*package*/ Counter(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + getCount();
+    }
+}
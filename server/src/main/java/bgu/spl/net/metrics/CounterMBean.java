@@ -0,0 +1,9 @@
+package bgu.spl.net.metrics;
+
+/**
+ * JMX view of a {@link Counter}
+ */
+public interface CounterMBean {
+
+    long getCount();
+}
@@ -0,0 +1,33 @@
+package bgu.spl.net.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event of a SEND fanned out to the subscribers of its destination,
+ * its duration is building and queueing the MESSAGE frames.
+ */
+@Name("bgu.spl.net.FanOut")
+@Label("STOMP Fan-out")
+@Description("A SEND fanned out to the subscribers of its destination")
+@Category({"STOMP Server", "Frames"})
+@Threshold("100 us")
+@StackTrace(false)
+public final class FanOutEvent extends jdk.jfr.Event {
+
+    @Label("Destination")
+    public String destination;
+
+    @Label("Recipients")
+    public int recipients;
+
+    @Label("Bytes")
+    @Description("Body bytes of the MESSAGE frames, after compression")
+    @DataAmount
+    public long bytes;
+}
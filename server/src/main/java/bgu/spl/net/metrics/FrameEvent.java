@@ -0,0 +1,33 @@
+package bgu.spl.net.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event of a frame processed by the STOMP protocol, its duration is the processing,
+ * including the fan-out of a SEND and the SQL statements it ran.
+ *
+ * Only frames taking longer than the threshold are recorded, so the event can stay on in production.
+ * Lower it for a recording with "bgu.spl.net.Frame#threshold=0 ms" in the recording's settings.
+ */
+@Name("bgu.spl.net.Frame")
+@Label("STOMP Frame")
+@Description("A frame processed by the STOMP protocol")
+@Category({"STOMP Server", "Frames"})
+@Threshold("100 us")
+@StackTrace(false)
+public final class FrameEvent extends jdk.jfr.Event {
+
+    @Label("Connection")
+    public int connectionId;
+
+    @Label("Command")
+    public String command;
+
+    @Label("Destination")
+    public String destination;
+}
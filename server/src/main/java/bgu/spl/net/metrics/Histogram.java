@@ -0,0 +1,129 @@
+package bgu.spl.net.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of non-negative values, such as latencies in nanoseconds or queue depths.
+ *
+ * Values are counted in log-linear buckets like HdrHistogram: values below 64 each have their own bucket,
+ * above that every power of two is split into 32 buckets, so a percentile is off by at most 1/32 of its value.
+ * Recording is one atomic increment per bucket plus the sum and maximum, it takes no lock and does not allocate.
+ * Reads are not a consistent snapshot while values are recorded, which is good enough for monitoring.
+ */
+public final class Histogram implements HistogramMBean {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // 32
+    // the largest shift is reached by Long.MAX_VALUE
+    private static final int BUCKETS = ((62 - SUB_BUCKET_BITS) << SUB_BUCKET_BITS) + 2 * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /*package*/ Histogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Count a value, negative values are counted as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucket(value));
+        sum.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    private static int bucket(long value) {
+        int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+        return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+    }
+
+    /**
+     * @return the largest value counted in a bucket
+     */
+    private static long highestValue(int bucket) {
+        int shift = Math.max(0, (bucket >>> SUB_BUCKET_BITS) - 1);
+        long subBucket = bucket - ((long) shift << SUB_BUCKET_BITS);
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    @Override
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    @Override
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    @Override
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the value below which the given percentage of the recorded values fall
+     */
+    public long valueAtPercentile(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    @Override
+    public long getP50() {
+        return valueAtPercentile(50);
+    }
+
+    @Override
+    public long getP90() {
+        return valueAtPercentile(90);
+    }
+
+    @Override
+    public long getP99() {
+        return valueAtPercentile(99);
+    }
+
+    @Override
+    public long getP999() {
+        return valueAtPercentile(99.9);
+    }
+
+    @Override
+    public String toString() {
+        return name + " count=" + getCount() + " mean=" + String.format("%.1f", getMean())
+                + " p50=" + getP50() + " p90=" + getP90() + " p99=" + getP99() + " p99.9=" + getP999()
+                + " max=" + getMax();
+    }
+}
@@ -0,0 +1,21 @@
+package bgu.spl.net.metrics;
+
+/**
+ * JMX view of a {@link Histogram}
+ */
+public interface HistogramMBean {
+
+    long getCount();
+
+    double getMean();
+
+    long getMax();
+
+    long getP50();
+
+    long getP90();
+
+    long getP99();
+
+    long getP999();
+}
@@ -0,0 +1,114 @@
+package bgu.spl.net.metrics;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sampled tracing of the time a frame spends in each stage, from the socket read that brought it in
+ * to the socket writes of the frames it caused (its RECEIPT, the MESSAGEs sent to subscribers...).
+ *
+ * The stages are recorded in histograms of the {@link MetricsRegistry}, in nanoseconds:
+ * <ul>
+ * <li>trace.read_to_decode.ns - the read bytes waiting for an actor thread and being decoded</li>
+ * <li>trace.process_to_enqueue.ns - processing up to queueing a resulting write, including the fan-out before it</li>
+ * <li>trace.enqueue_to_flush.ns - the write waiting in the receiver's write queue until it reached the socket</li>
+ * <li>trace.total.ns - from the read to the write reaching the socket</li>
+ * </ul>
+ * The sample rate is set with the system property stomp.trace.rate, a fraction of the frames between 0 and 1.
+ * It is 0 by default, which turns tracing off: handlers then skip it after checking {@link #ENABLED}.
+ * A frame is processed by the thread that decoded it as soon as it is complete, so processing starts at the decode time.
+ *
+ * A sampled frame's trace is the current trace of the thread processing it, so writes queued while processing
+ * it, to any connection, are attributed to it.
+ */
+public final class LatencyTracer {
+
+    public static final double RATE = Double.parseDouble(System.getProperty("stomp.trace.rate", "0"));
+    public static final boolean ENABLED = RATE > 0;
+
+    private static final Histogram READ_TO_DECODE = histogram("trace.read_to_decode.ns");
+    private static final Histogram PROCESS_TO_ENQUEUE = histogram("trace.process_to_enqueue.ns");
+    private static final Histogram ENQUEUE_TO_FLUSH = histogram("trace.enqueue_to_flush.ns");
+    private static final Histogram TOTAL = histogram("trace.total.ns");
+
+    private static final ThreadLocal<Trace> current = new ThreadLocal<>();
+
+    private LatencyTracer() {
+    }
+
+    private static Histogram histogram(String name) {
+        return ENABLED ? MetricsRegistry.getInstance().histogram(name) : null;
+    }
+
+    /**
+     * @return the current time if tracing is enabled, to be passed to {@link #decoded(long)} as the read time
+     */
+    public static long readTime() {
+        return ENABLED ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Called when a frame was decoded from bytes read at readTime, decides whether it is sampled
+     * @return the trace of the frame, or null if it is not traced
+     */
+    public static Trace decoded(long readTime) {
+        if (!ENABLED || ThreadLocalRandom.current().nextDouble() >= RATE) {
+            return null;
+        }
+        return new Trace(readTime, System.nanoTime());
+    }
+
+    /**
+     * Make the trace the current one of this thread while the protocol processes its frame
+     */
+    public static void processing(Trace trace) {
+        if (trace != null) {
+            READ_TO_DECODE.record(trace.decodeTime - trace.readTime);
+            current.set(trace);
+        }
+    }
+
+    public static void processed(Trace trace) {
+        if (trace != null) {
+            current.remove();
+        }
+    }
+
+    /**
+     * @return the trace of the frame this thread is processing, or null
+     */
+    public static Trace current() {
+        return ENABLED ? current.get() : null;
+    }
+
+    /**
+     * Timestamps of a sampled frame, in System.nanoTime()
+     */
+    public static final class Trace {
+        private final long readTime;
+        private final long decodeTime;
+
+        private Trace(long readTime, long decodeTime) {
+            this.readTime = readTime;
+            this.decodeTime = decodeTime;
+        }
+
+        /**
+         * Record that a write caused by this frame was queued
+         * @return the time it was queued, to be passed to {@link #flushed(long)}
+         */
+        public long enqueued() {
+            long now = System.nanoTime();
+            PROCESS_TO_ENQUEUE.record(now - decodeTime);
+            return now;
+        }
+
+        /**
+         * Record that a write queued at enqueueTime reached the socket
+         */
+        public void flushed(long enqueueTime) {
+            long now = System.nanoTime();
+            ENQUEUE_TO_FLUSH.record(now - enqueueTime);
+            TOTAL.record(now - readTime);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package bgu.spl.net.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Named counters and histograms of the server.
+ * Metrics are created on first use and live as long as the server. Look them up once and keep the
+ * reference, recording on it is then lock free. Every metric is also registered as an MBean under
+ * "bgu.spl.net:type=Counter,name=..." or "bgu.spl.net:type=Histogram,name=...", so it can be watched with
+ * jconsole or any other JMX client.
+ */
+public class MetricsRegistry {
+
+    public static final String JMX_DOMAIN = "bgu.spl.net";
+
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private MetricsRegistry() {
+    }
+
+    public static MetricsRegistry getInstance() {
+        return Instance.instance;
+    }
+
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(name, key -> {
+                Counter created = new Counter(key);
+                register("Counter", key, created);
+                return created;
+            });
+        }
+        return counter;
+    }
+
+    public Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = histograms.computeIfAbsent(name, key -> {
+                Histogram created = new Histogram(key);
+                register("Histogram", key, created);
+                return created;
+            });
+        }
+        return histogram;
+    }
+
+    public Collection<Counter> getCounters() {
+        return Collections.unmodifiableCollection(new TreeMap<>(counters).values());
+    }
+
+    public Collection<Histogram> getHistograms() {
+        return Collections.unmodifiableCollection(new TreeMap<>(histograms).values());
+    }
+
+    /**
+     * @return every metric with its current value, one per line, sorted by name
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        for (Counter counter : getCounters()) {
+            sb.append(counter).append('\n');
+        }
+        for (Histogram histogram : getHistograms()) {
+            sb.append(histogram).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void register(String type, String name, Object metric) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(metric, objectName);
+            }
+        } catch (JMException | SecurityException e) {
+            // the metric still works in process
+        }
+    }
+
+    private static class Instance {
+        static MetricsRegistry instance = new MetricsRegistry();
+    }
+}
@@ -0,0 +1,28 @@
+package bgu.spl.net.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight Recorder event of an iteration of the reactor's selector loop, from the select returning to the
+ * next select. Only iterations taking longer than the threshold are recorded: they delay every connection.
+ */
+@Name("bgu.spl.net.Selector")
+@Label("Selector Iteration")
+@Description("An iteration of the reactor's selector loop, without the wait in select")
+@Category({"STOMP Server", "Reactor"})
+@Threshold("1 ms")
+@StackTrace(false)
+public final class SelectorEvent extends jdk.jfr.Event {
+
+    @Label("Selected Keys")
+    public int selectedKeys;
+
+    @Label("Tasks")
+    @Description("Tasks queued to the selector thread that were run")
+    public int tasks;
+}
@@ -0,0 +1,25 @@
+package bgu.spl.net.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event of a statement run on the SQL sidecar, its duration is the round trip
+ */
+@Name("bgu.spl.net.Sql")
+@Label("SQL Statement")
+@Description("A statement run on the SQL sidecar")
+@Category({"STOMP Server", "Database"})
+@StackTrace(false)
+public final class SqlEvent extends jdk.jfr.Event {
+
+    @Label("Kind")
+    @Description("The statement's first keyword, SELECT, INSERT...")
+    public String kind;
+
+    @Label("Failed")
+    public boolean failed;
+}
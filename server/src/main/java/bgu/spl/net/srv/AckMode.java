@@ -0,0 +1,23 @@
+package bgu.spl.net.srv;
+
+/**
+ * STOMP acknowledgement modes a subscription can request
+ */
+public enum AckMode {
+	AUTO, CLIENT, CLIENT_INDIVIDUAL;
+
+	/**
+	 * Resolve the value of a SUBSCRIBE frame's ack header
+	 * @return the matching mode, AUTO when the header is absent, or null if the value is unknown
+	 */
+	public static AckMode fromHeader(String value) {
+		if (value == null || value.equals("auto")) {
+			return AUTO;
+		} else if (value.equals("client")) {
+			return CLIENT;
+		} else if (value.equals("client-individual")) {
+			return CLIENT_INDIVIDUAL;
+		}
+		return null;
+	}
+}
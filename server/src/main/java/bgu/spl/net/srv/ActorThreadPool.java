@@ -1,37 +1,39 @@
 package bgu.spl.net.srv;
 
-import java.util.LinkedList;
+import bgu.spl.net.metrics.Histogram;
+import bgu.spl.net.metrics.MetricsRegistry;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.Queue;
 import java.util.Set;
-import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class ActorThreadPool {
 
-    private final Map<Object, Queue<Runnable>> acts;
-    private final ReadWriteLock actsRWLock;
+    // time from submitting a task until a thread starts running it
+    private static final Histogram QUEUE_DELAY = MetricsRegistry.getInstance().histogram("actor.queue.delay.ns");
+
+    // tasks waiting for a running task of their actor, an actor's queue is changed only while holding the actor's
+    // monitor and removed once drained, so idle actors are not referenced
+    private final Map<Object, PendingTasks> acts;
     private final Set<Object> playingNow;
     private final ExecutorService threads;
 
     public ActorThreadPool(int threads) {
         this.threads = Executors.newFixedThreadPool(threads);
-        acts = new WeakHashMap<>();
+        acts = new ConcurrentHashMap<>();
         playingNow = ConcurrentHashMap.newKeySet();
-        actsRWLock = new ReentrantReadWriteLock();
     }
 
     public void submit(Object act, Runnable r) {
+        long submittedAt = System.nanoTime();
         synchronized (act) {
             if (!playingNow.contains(act)) {
                 playingNow.add(act);
-                execute(r, act);
+                execute(r, act, submittedAt);
             } else {
-                pendingRunnablesOf(act).add(r);
+                acts.computeIfAbsent(act, k -> new PendingTasks()).add(r, submittedAt);
             }
         }
     }
@@ -40,22 +42,9 @@ public class ActorThreadPool {
         threads.shutdownNow();
     }
 
-    private Queue<Runnable> pendingRunnablesOf(Object act) {
-
-        actsRWLock.readLock().lock();
-        Queue<Runnable> pendingRunnables = acts.get(act);
-        actsRWLock.readLock().unlock();
-
-        if (pendingRunnables == null) {
-            actsRWLock.writeLock().lock();
-            acts.put(act, pendingRunnables = new LinkedList<>());
-            actsRWLock.writeLock().unlock();
-        }
-        return pendingRunnables;
-    }
-
-    private void execute(Runnable r, Object act) {
+    private void execute(Runnable r, Object act, long submittedAt) {
         threads.execute(() -> {
+            QUEUE_DELAY.record(System.nanoTime() - submittedAt);
             try {
                 r.run();
             } finally {
@@ -66,12 +55,70 @@ public class ActorThreadPool {
 
     private void complete(Object act) {
         synchronized (act) {
-            Queue<Runnable> pending = pendingRunnablesOf(act);
-            if (pending.isEmpty()) {
+            PendingTasks pending = acts.get(act);
+            if (pending == null) {
                 playingNow.remove(act);
             } else {
-                execute(pending.poll(), act);
+                Runnable next = pending.firstTask();
+                long submittedAt = pending.firstSubmittedAt();
+                pending.removeFirst();
+                if (pending.isEmpty()) {
+                    acts.remove(act);
+                }
+                execute(next, act, submittedAt);
+            }
+        }
+    }
+
+    /**
+     * The tasks of an actor waiting for its running task, in submission order, with the times they were submitted.
+     * A ring of parallel arrays, so queueing a task allocates nothing once the ring is large enough.
+     */
+    private static class PendingTasks {
+        private Runnable[] tasks = new Runnable[4];
+        private long[] submittedAt = new long[4];
+        private int head = 0;
+        private int size = 0;
+
+        void add(Runnable task, long time) {
+            if (size == tasks.length) {
+                grow();
             }
+            int tail = (head + size) & (tasks.length - 1);
+            tasks[tail] = task;
+            submittedAt[tail] = time;
+            size++;
+        }
+
+        Runnable firstTask() {
+            return tasks[head];
+        }
+
+        long firstSubmittedAt() {
+            return submittedAt[head];
+        }
+
+        void removeFirst() {
+            tasks[head] = null;
+            head = (head + 1) & (tasks.length - 1);
+            size--;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        private void grow() {
+            // unroll the ring to the start of arrays twice as large, which keeps the capacity a power of two
+            Runnable[] grownTasks = Arrays.copyOf(tasks, tasks.length * 2);
+            long[] grownTimes = Arrays.copyOf(submittedAt, submittedAt.length * 2);
+            System.arraycopy(tasks, head, grownTasks, 0, tasks.length - head);
+            System.arraycopy(tasks, 0, grownTasks, tasks.length - head, head);
+            System.arraycopy(submittedAt, head, grownTimes, 0, submittedAt.length - head);
+            System.arraycopy(submittedAt, 0, grownTimes, submittedAt.length - head, head);
+            tasks = grownTasks;
+            submittedAt = grownTimes;
+            head = 0;
         }
     }
 
@@ -46,7 +46,7 @@ public abstract class BaseServer<T> implements Server<T> {
                 // If protocol is a StompProtocolAdapter, register the handler
                 if (protocol instanceof bgu.spl.net.impl.stomp.StompProtocolAdapter) {
                     ((bgu.spl.net.impl.stomp.StompProtocolAdapter) protocol).setHandler(
-                        (bgu.spl.net.srv.ConnectionHandler<String>) (Object) handler);
+                        (bgu.spl.net.srv.ConnectionHandler<bgu.spl.net.impl.stomp.StompFrame>) (Object) handler);
                 }
 
                 execute(handler);
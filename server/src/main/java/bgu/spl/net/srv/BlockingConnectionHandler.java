@@ -2,18 +2,28 @@ package bgu.spl.net.srv;
 
 import bgu.spl.net.api.MessageEncoderDecoder;
 import bgu.spl.net.api.MessagingProtocol;
+import bgu.spl.net.log.Log;
+import bgu.spl.net.log.Logger;
+import bgu.spl.net.metrics.LatencyTracer;
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
 
 public class BlockingConnectionHandler<T> implements Runnable, ConnectionHandler<T> {
 
+    private static final Logger log = Log.getLogger(BlockingConnectionHandler.class);
+    private static final int BUFFER_ALLOCATION_SIZE = 1 << 13; //8k
+
     private final MessagingProtocol<T> protocol;
     private final MessageEncoderDecoder<T> encdec;
     private final Socket sock;
     private BufferedInputStream in;
-    private BufferedOutputStream out;
+    private OutputStream out;
+    // frames are encoded straight into this buffer, which is then written to the socket
+    private final ByteBuffer outBuffer = ByteBuffer.allocate(BUFFER_ALLOCATION_SIZE);
     private volatile boolean connected = true;
 
     public BlockingConnectionHandler(Socket sock, MessageEncoderDecoder<T> reader, MessagingProtocol<T> protocol) {
@@ -24,25 +34,38 @@ public class BlockingConnectionHandler<T> implements Runnable, ConnectionHandler
 
     @Override
     public void run() {
+        int captureId = TrafficCapture.opened(sock.getLocalPort(), encdec);
         try (Socket sock = this.sock) { //just for automatic closing
             int read;
+            byte[] inBuffer = new byte[BUFFER_ALLOCATION_SIZE];
 
             in = new BufferedInputStream(sock.getInputStream());
-            out = new BufferedOutputStream(sock.getOutputStream());
+            out = sock.getOutputStream();
 
-            while (!protocol.shouldTerminate() && connected && (read = in.read()) >= 0) {
-                T nextMessage = encdec.decodeNextByte((byte) read);
-                if (nextMessage != null) {
-                    T response = protocol.process(nextMessage);
-                    if (response != null) {
-                        out.write(encdec.encode(response));
-                        out.flush();
+            while (!protocol.shouldTerminate() && connected && (read = in.read(inBuffer)) >= 0) {
+                TrafficCapture.read(captureId, inBuffer, 0, read);
+                for (int i = 0; i < read && !protocol.shouldTerminate() && connected; i++) {
+                    T nextMessage = encdec.decodeNextByte(inBuffer[i]);
+                    if (nextMessage != null) {
+                        // the frame is traced from the moment it is complete
+                        LatencyTracer.Trace trace = LatencyTracer.decoded(LatencyTracer.readTime());
+                        LatencyTracer.processing(trace);
+                        try {
+                            T response = protocol.process(nextMessage);
+                            if (response != null) {
+                                send(response);
+                            }
+                        } finally {
+                            LatencyTracer.processed(trace);
+                        }
                     }
                 }
             }
 
         } catch (IOException ex) {
             ex.printStackTrace();
+        } finally {
+            TrafficCapture.closed(captureId);
         }
 
     }
@@ -54,20 +77,60 @@ public class BlockingConnectionHandler<T> implements Runnable, ConnectionHandler
     }
 
     @Override
-    public void send(T msg) {
+    public synchronized void sendAll(List<T> msgs) {
         try {
-            System.out.println("BlockingConnectionHandler.send() called with message: " + msg);
             if (out != null && connected) {
-                System.out.println("Writing to output stream...");
-                out.write(encdec.encode(msg));
-                out.flush();
-                System.out.println("Message sent and flushed.");
+                LatencyTracer.Trace trace = LatencyTracer.current();
+                long enqueueTime = trace != null ? trace.enqueued() : 0;
+                for (T msg : msgs) {
+                    write(msg);
+                }
+                flush();
+                if (trace != null) {
+                    trace.flushed(enqueueTime);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("IOException in sendAll()", e);
+        }
+    }
+
+    @Override
+    public synchronized void send(T msg) {
+        try {
+            if (out != null && connected) {
+                // writes are synchronous, a write is queued once it holds this handler's lock
+                LatencyTracer.Trace trace = LatencyTracer.current();
+                long enqueueTime = trace != null ? trace.enqueued() : 0;
+                write(msg);
+                flush();
+                if (trace != null) {
+                    trace.flushed(enqueueTime);
+                }
             } else {
-                System.out.println("ERROR: out is " + (out == null ? "null" : "not null") + ", connected=" + connected);
+                log.debug("Dropped a message, out is {}, connected={}", out == null ? "null" : "not null", connected);
             }
         } catch (IOException e) {
-            System.err.println("IOException in send(): " + e.getMessage());
-            e.printStackTrace();
+            log.warn("IOException in send()", e);
+        }
+    }
+
+    private void write(T msg) throws IOException {
+        if (encdec.encode(msg, outBuffer)) {
+            return;
+        }
+        flush();
+        if (!encdec.encode(msg, outBuffer)) {
+            // larger than the buffer
+            out.write(encdec.encode(msg));
+        }
+    }
+
+    private void flush() throws IOException {
+        if (outBuffer.position() > 0) {
+            out.write(outBuffer.array(), 0, outBuffer.position());
+            outBuffer.clear();
         }
+        out.flush();
     }
 }
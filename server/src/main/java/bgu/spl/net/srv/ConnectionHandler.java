@@ -6,6 +6,7 @@
 package bgu.spl.net.srv;
 
 import java.io.Closeable;
+import java.util.List;
 
 /**
  * The ConnectionHandler interface for Message of type T
@@ -19,4 +20,13 @@ public interface ConnectionHandler<T> extends Closeable {
 
     void send(T msg);
 
+    /**
+     * Send several messages as a single write, in order
+     */
+    default void sendAll(List<T> msgs) {
+        for (T msg : msgs) {
+            send(msg);
+        }
+    }
+
 }
@@ -1,22 +1,46 @@
 package bgu.spl.net.srv;
 
+import bgu.spl.net.log.Level;
+import bgu.spl.net.log.Log;
+import bgu.spl.net.log.Logger;
 import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ConnectionsImpl<T> implements Connections<T> {
+
+    private static final Logger log = Log.getLogger(ConnectionsImpl.class);
     
     private final ConcurrentHashMap<Integer, ConnectionHandler<T>> connectionHandlers;
-    private final ConcurrentHashMap<String, CopyOnWriteArraySet<Integer>> channelSubscriptions;
+    // Subscriptions indexed by channel, channels may be wildcard patterns
+    private final TopicTrie channelSubscriptions;
     // Track subscriptions: connectionId -> List of Subscriptions
     private final ConcurrentHashMap<Integer, CopyOnWriteArrayList<Subscription>> connectionSubscriptions;
+    // Flow control state of client-ack subscriptions
+    private final ConcurrentHashMap<Subscription, DeliveryWindow<T>> deliveryWindows;
+    private final AtomicLong messageIdCounter;
+    // Canonical destination handles by name, held weakly so a name nobody publishes to anymore is forgotten
+    private final ConcurrentHashMap<String, DestinationReference> destinations;
+    private final ReferenceQueue<Destination> collectedDestinations;
+    // Connections that negotiated compressed message bodies
+    private final Set<Integer> compressingConnections;
 
     public ConnectionsImpl() {
         this.connectionHandlers = new ConcurrentHashMap<>();
-        this.channelSubscriptions = new ConcurrentHashMap<>();
+        this.channelSubscriptions = new TopicTrie();
         this.connectionSubscriptions = new ConcurrentHashMap<>();
+        this.deliveryWindows = new ConcurrentHashMap<>();
+        this.messageIdCounter = new AtomicLong();
+        this.destinations = new ConcurrentHashMap<>();
+        this.collectedDestinations = new ReferenceQueue<>();
+        this.compressingConnections = ConcurrentHashMap.newKeySet();
     }
 
     /**
@@ -26,44 +50,72 @@ public class ConnectionsImpl<T> implements Connections<T> {
         connectionHandlers.put(connectionId, handler);
     }
 
+    /**
+     * Record that a connection accepts compressed message bodies, until it disconnects
+     */
+    public void enableCompression(int connectionId) {
+        compressingConnections.add(connectionId);
+    }
+
+    public boolean acceptsCompression(int connectionId) {
+        return compressingConnections.contains(connectionId);
+    }
+
     /**
      * Subscribe a connection to a channel with a specific subscription ID
      */
     public void subscribe(String channel, int connectionId, String subscriptionId) {
-        // Add to channel subscribers
-        channelSubscriptions.computeIfAbsent(channel, k -> new CopyOnWriteArraySet<>()).add(connectionId);
-        
-        // Track subscription details
-        Subscription subscription = new Subscription(subscriptionId, channel, connectionId);
-        connectionSubscriptions.computeIfAbsent(connectionId, k -> new CopyOnWriteArrayList<>()).add(subscription);
+        subscribe(new Subscription(subscriptionId, channel, connectionId));
     }
 
     /**
-     * Unsubscribe a connection from a channel
+     * Register a subscription, with its acknowledgement mode, in-flight window and selector.
+     * It replaces the connection's subscription with the same id, if there is one.
      */
-    public void unsubscribe(String channel, int connectionId) {
-        // Remove from channel subscribers
-        CopyOnWriteArraySet<Integer> subscribers = channelSubscriptions.get(channel);
-        if (subscribers != null) {
-            subscribers.remove(connectionId);
-            if (subscribers.isEmpty()) {
-                channelSubscriptions.remove(channel);
+    public void subscribe(Subscription subscription) {
+        // The connection's list, the channel subscribers and the window change together under the list's entry,
+        // so an unsubscribe or disconnect of the same connection sees all of them or none
+        connectionSubscriptions.compute(subscription.getConnectionId(), (connectionId, subs) -> {
+            if (subs == null) {
+                subs = new CopyOnWriteArrayList<>();
             }
-        }
-        
-        // Remove subscription from connection's subscription list
-        CopyOnWriteArrayList<Subscription> subs = connectionSubscriptions.get(connectionId);
-        if (subs != null) {
-            subs.removeIf(sub -> sub.getChannel().equals(channel));
-            if (subs.isEmpty()) {
-                connectionSubscriptions.remove(connectionId);
+            remove(subs, subscription.getSubscriptionId());
+            if (subscription.getAckMode() != AckMode.AUTO) {
+                deliveryWindows.put(subscription, new DeliveryWindow<>(subscription.getAckMode(), subscription.getPrefetch()));
+            }
+            subs.add(subscription);
+            channelSubscriptions.add(subscription);
+            return subs;
+        });
+    }
+
+    /**
+     * Remove a subscription of a connection, the connection's other subscriptions to the same channel stay
+     */
+    public void unsubscribe(int connectionId, String subscriptionId) {
+        // Remove subscription from connection's subscription list and from the channel subscribers.
+        // The list is dropped once empty in the same step, a concurrent subscribe cannot add to a dropped list.
+        connectionSubscriptions.computeIfPresent(connectionId, (id, subs) -> {
+            remove(subs, subscriptionId);
+            return subs.isEmpty() ? null : subs;
+        });
+    }
+
+    private void remove(List<Subscription> subs, String subscriptionId) {
+        for (Subscription sub : subs) {
+            if (sub.getSubscriptionId().equals(subscriptionId)) {
+                subs.remove(sub);
+                channelSubscriptions.remove(sub);
+                deliveryWindows.remove(sub);
             }
         }
     }
 
     @Override
     public boolean send(int connectionId, T msg) {
-        System.out.println("Sending message to connection " + connectionId + ":\n" + msg);
+        if (log.isEnabled(Level.TRACE)) {
+            log.trace("Sending message to connection {}:\n{}", connectionId, msg.toString());
+        }
         ConnectionHandler<T> handler = connectionHandlers.get(connectionId);
         if (handler != null) {
             handler.send(msg);
@@ -74,38 +126,125 @@ public class ConnectionsImpl<T> implements Connections<T> {
 
     @Override
     public void send(String channel, T msg) {
-        CopyOnWriteArraySet<Integer> subscribers = channelSubscriptions.get(channel);
-        if (subscribers != null) {
-            for (Integer connId : subscribers) {
-                send(connId, msg);
+        // A connection whose patterns overlap still receives the message once
+        Set<Integer> sent = new HashSet<>();
+        for (Subscription sub : channelSubscriptions.match(channel)) {
+            if (sent.add(sub.getConnectionId())) {
+                send(sub.getConnectionId(), msg);
             }
         }
     }
     
     /**
-     * Get subscription ID for a connection and channel
+     * Get a connection's subscription by its id
      */
-    public String getSubscriptionId(int connectionId, String channel) {
+    public Subscription getSubscription(int connectionId, String subscriptionId) {
         List<Subscription> subs = connectionSubscriptions.get(connectionId);
         if (subs != null) {
             for (Subscription sub : subs) {
-                if (sub.getChannel().equals(channel)) {
-                    return sub.getSubscriptionId();
+                if (sub.getSubscriptionId().equals(subscriptionId)) {
+                    return sub;
                 }
             }
         }
         return null;
     }
 
+    /**
+     * @return a new server-unique message id
+     */
+    public String nextMessageId() {
+        return String.valueOf(messageIdCounter.incrementAndGet());
+    }
+
+    /**
+     * Deliver a message on a subscription, honoring its in-flight window.
+     * Auto-ack subscriptions are written immediately, client-ack ones are held while their window is full.
+     * @param ackId the id the subscriber will use to ACK or NACK this message
+     * @return {@link DeliveryWindow.Admission#OVERFLOW} if the subscriber holds too many messages and the caller
+     * should disconnect it
+     */
+    public DeliveryWindow.Admission deliver(Subscription subscription, String ackId, T msg) {
+        DeliveryWindow.Admission admission = admit(subscription, ackId, msg);
+        if (admission == DeliveryWindow.Admission.WRITE) {
+            send(subscription.getConnectionId(), msg);
+        }
+        return admission;
+    }
+
+    /**
+     * Pass a message through the subscription's in-flight window without writing it
+     * @return {@link DeliveryWindow.Admission#WRITE} if the caller should write the message now
+     */
+    public DeliveryWindow.Admission admit(Subscription subscription, String ackId, T msg) {
+        DeliveryWindow<T> window = deliveryWindows.get(subscription);
+        return window == null ? DeliveryWindow.Admission.WRITE : window.offer(ackId, msg);
+    }
+
+    /**
+     * Send several messages to a connection as a single write
+     */
+    public boolean sendAll(int connectionId, List<T> msgs) {
+        ConnectionHandler<T> handler = connectionHandlers.get(connectionId);
+        if (handler != null) {
+            handler.sendAll(msgs);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Acknowledge a message previously delivered to the connection
+     * @return false if no subscription of this connection has the ack id in flight
+     */
+    public boolean ack(int connectionId, String ackId) {
+        DeliveryWindow<T> window = findWindow(connectionId, ackId);
+        return window != null && flush(connectionId, window.ack(ackId));
+    }
+
+    /**
+     * Reject a message previously delivered to the connection, it will be redelivered
+     * @return false if no subscription of this connection has the ack id in flight
+     */
+    public boolean nack(int connectionId, String ackId) {
+        DeliveryWindow<T> window = findWindow(connectionId, ackId);
+        return window != null && flush(connectionId, window.nack(ackId));
+    }
+
+    private DeliveryWindow<T> findWindow(int connectionId, String ackId) {
+        List<Subscription> subs = connectionSubscriptions.get(connectionId);
+        if (subs != null) {
+            for (Subscription sub : subs) {
+                DeliveryWindow<T> window = deliveryWindows.get(sub);
+                if (window != null && window.isInFlight(ackId)) {
+                    return window;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean flush(int connectionId, List<T> released) {
+        if (released == null) {
+            return false;
+        }
+        if (!released.isEmpty()) {
+            sendAll(connectionId, released);
+        }
+        return true;
+    }
+
     @Override
     public void disconnect(int connectionId) {
-        // Remove from all channel subscriptions
-        for (CopyOnWriteArraySet<Integer> subscribers : channelSubscriptions.values()) {
-            subscribers.remove(connectionId);
-        }
-        
-        // Remove all subscriptions for this connection
-        connectionSubscriptions.remove(connectionId);
+        // Remove all subscriptions for this connection, messages they still hold are dropped with them
+        connectionSubscriptions.computeIfPresent(connectionId, (id, subs) -> {
+            for (Subscription sub : subs) {
+                channelSubscriptions.remove(sub);
+                deliveryWindows.remove(sub);
+            }
+            return null;
+        });
+        compressingConnections.remove(connectionId);
         
         // Close and remove the connection handler
         ConnectionHandler<T> handler = connectionHandlers.remove(connectionId);
@@ -113,12 +252,68 @@ public class ConnectionsImpl<T> implements Connections<T> {
             try {
                 handler.close();
             } catch (IOException e) {
-                e.printStackTrace();
+                log.warn("Failed to close connection " + connectionId, e);
             }
         }
     }
 
-    public CopyOnWriteArraySet<Integer> getSubscribers(String channel) {
-        return channelSubscriptions.get(channel);
+    /**
+     * Get every subscription that should receive a message sent to the channel,
+     * both exact subscriptions and wildcard patterns matching it
+     */
+    public Collection<Subscription> getSubscriptions(String channel) {
+        return channelSubscriptions.match(channel);
+    }
+
+    /**
+     * Same as {@link #getSubscriptions(String)}, reusing the match cached on the handle
+     * as long as no subscription changed since
+     */
+    public Collection<Subscription> getSubscriptions(Destination destination) {
+        return channelSubscriptions.match(destination);
+    }
+
+    /**
+     * @return the canonical handle of a destination name, the same object for every call with this name
+     * as long as a handle of the name is referenced
+     */
+    public Destination destination(String name) {
+        DestinationReference reference = destinations.get(name);
+        Destination destination = reference != null ? reference.get() : null;
+        if (destination != null) {
+            return destination;
+        }
+        expungeDestinations();
+        // the handle is kept strongly here until the caller has it, it cannot be collected in between
+        Destination[] canonical = new Destination[1];
+        destinations.compute(name, (key, existing) -> {
+            Destination live = existing != null ? existing.get() : null;
+            if (live == null) {
+                live = new Destination(key);
+                existing = new DestinationReference(live, collectedDestinations);
+            }
+            canonical[0] = live;
+            return existing;
+        });
+        return canonical[0];
+    }
+
+    /**
+     * Drop the entries of the handles that were collected
+     */
+    private void expungeDestinations() {
+        DestinationReference collected;
+        while ((collected = (DestinationReference) collectedDestinations.poll()) != null) {
+            destinations.remove(collected.name, collected);
+        }
+    }
+
+    private static class DestinationReference extends WeakReference<Destination> {
+        private final String name;
+
+        DestinationReference(Destination destination, ReferenceQueue<Destination> queue) {
+            super(destination, queue);
+            this.name = destination.getName();
+        }
     }
 }
@@ -0,0 +1,162 @@
+package bgu.spl.net.srv;
+
+import bgu.spl.net.metrics.Counter;
+import bgu.spl.net.metrics.MetricsRegistry;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Flow control state of a single client-ack subscription.
+ * At most prefetch messages are in flight (sent but not acknowledged), the rest are held
+ * here until the subscriber acknowledges or rejects earlier ones.
+ *
+ * At most stomp.delivery.max_held messages are held, 1000 by default. A subscriber that stops acknowledging
+ * would otherwise make the server keep every later message of the channel. Held messages are never dropped:
+ * the offer that finds them all taken reports {@link Admission#OVERFLOW}, once, and the caller disconnects the
+ * subscriber. Overflows are counted by the delivery.overflow metric.
+ */
+public class DeliveryWindow<T> {
+
+    public static final int DEFAULT_MAX_HELD = 1000;
+
+    private static final Counter OVERFLOWS = MetricsRegistry.getInstance().counter("delivery.overflow");
+
+    /**
+     * What became of an offered message
+     */
+    public enum Admission {
+        /** in flight, the caller writes it now */
+        WRITE,
+        /** held until earlier messages are acknowledged */
+        HOLD,
+        /** not taken, the held messages are at their maximum. The caller disconnects the subscriber. */
+        OVERFLOW,
+        /** not taken, the window overflowed before and its subscriber is being disconnected */
+        DISCARD
+    }
+
+    private final AckMode ackMode;
+    private final int prefetch;
+    private final int maxHeld;
+    // ack id -> message, in delivery order
+    private final LinkedHashMap<String, T> inFlight = new LinkedHashMap<>();
+    private final Deque<Pending<T>> held = new ArrayDeque<>();
+    private boolean overflowed = false;
+
+    public DeliveryWindow(AckMode ackMode, int prefetch) {
+        this(ackMode, prefetch, Integer.getInteger("stomp.delivery.max_held", DEFAULT_MAX_HELD));
+    }
+
+    public DeliveryWindow(AckMode ackMode, int prefetch, int maxHeld) {
+        this.ackMode = ackMode;
+        this.prefetch = Math.max(1, prefetch);
+        this.maxHeld = Math.max(1, maxHeld);
+    }
+
+    /**
+     * Offer a new message to the subscription
+     * @return whether the message is written now or held, or whether the window overflowed
+     */
+    public synchronized Admission offer(String ackId, T msg) {
+        if (overflowed) {
+            return Admission.DISCARD;
+        }
+        if (held.isEmpty() && inFlight.size() < prefetch) {
+            inFlight.put(ackId, msg);
+            return Admission.WRITE;
+        }
+        if (held.size() >= maxHeld) {
+            overflowed = true;
+            OVERFLOWS.increment();
+            return Admission.OVERFLOW;
+        }
+        held.addLast(new Pending<>(ackId, msg));
+        return Admission.HOLD;
+    }
+
+    /**
+     * Acknowledge a message. In client mode this also acknowledges every message delivered before it.
+     * @return the held messages that now fit in the window and should be written, or null if the id is unknown
+     */
+    public synchronized List<T> ack(String ackId) {
+        if (!inFlight.containsKey(ackId)) {
+            return null;
+        }
+        if (ackMode == AckMode.CLIENT) {
+            Iterator<String> it = inFlight.keySet().iterator();
+            while (it.hasNext()) {
+                boolean last = it.next().equals(ackId);
+                it.remove();
+                if (last) break;
+            }
+        } else {
+            inFlight.remove(ackId);
+        }
+        return release();
+    }
+
+    /**
+     * Reject a message, it is put back in front of the held messages and redelivered
+     * @return the messages that should be written now, or null if the id is unknown
+     */
+    public synchronized List<T> nack(String ackId) {
+        T msg = inFlight.remove(ackId);
+        if (msg == null) {
+            return null;
+        }
+        held.addFirst(new Pending<>(ackId, msg));
+        return release();
+    }
+
+    /**
+     * @return true if the given ack id is currently in flight on this subscription
+     */
+    public synchronized boolean isInFlight(String ackId) {
+        return inFlight.containsKey(ackId);
+    }
+
+    /**
+     * @return the number of messages waiting for room in the window
+     */
+    public synchronized int heldCount() {
+        return held.size();
+    }
+
+    private List<T> release() {
+        if (held.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<T> released = new ArrayList<>();
+        while (!held.isEmpty() && inFlight.size() < prefetch) {
+            Pending<T> next = held.pollFirst();
+            inFlight.put(next.ackId, next.msg);
+            released.add(next.msg);
+        }
+        return released;
+    }
+
+    private static class Pending<T> {
+        private final String ackId;
+        private final T msg;
+
+        private Pending(String ackId, T msg) {
+            this.ackId = ackId;
+            this.msg = msg;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DeliveryWindow{" +
+                "inFlight=" + inFlight.size() +
+                ", held=" + held.size() +
+                ", prefetch=" + prefetch +
+                ", maxHeld=" + maxHeld +
+                '}';
+    }
+}
@@ -0,0 +1,62 @@
+package bgu.spl.net.srv;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Canonical handle of a destination, see {@link ConnectionsImpl#destination(String)}.
+ * There is one handle per destination name, so handles compare by identity, and each handle caches
+ * its hash, its trie segments and the subscriptions that matched it last time.
+ * Handles no longer referenced are collected, a later handle of the same name starts with an empty cache.
+ */
+public final class Destination {
+
+    private final String name;
+    private final int hash;
+    private final List<String> segments;
+    // subscriptions matching this destination, valid while the trie version did not change
+    private volatile Matches matches;
+
+    /*package*/ Destination(String name) {
+        this.name = name;
+        this.hash = name.hashCode();
+        this.segments = TopicTrie.segments(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /*package*/ List<String> segments() {
+        return segments;
+    }
+
+    /*package*/ Collection<Subscription> cachedMatches(long version) {
+        Matches cached = matches;
+        return cached != null && cached.version == version ? cached.subscriptions : null;
+    }
+
+    /*package*/ void cacheMatches(long version, Collection<Subscription> subscriptions) {
+        matches = new Matches(version, subscriptions);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    private static class Matches {
+        private final long version;
+        private final Collection<Subscription> subscriptions;
+
+        private Matches(long version, Collection<Subscription> subscriptions) {
+            this.version = version;
+            this.subscriptions = subscriptions;
+        }
+    }
+}
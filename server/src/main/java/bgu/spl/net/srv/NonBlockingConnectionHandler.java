@@ -2,24 +2,39 @@ package bgu.spl.net.srv;
 
 import bgu.spl.net.api.MessageEncoderDecoder;
 import bgu.spl.net.api.MessagingProtocol;
+import bgu.spl.net.metrics.Histogram;
+import bgu.spl.net.metrics.LatencyTracer;
+import bgu.spl.net.metrics.MetricsRegistry;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class NonBlockingConnectionHandler<T> implements ConnectionHandler<T> {
 
     private static final int BUFFER_ALLOCATION_SIZE = 1 << 13; //8k
     private static final ConcurrentLinkedQueue<ByteBuffer> BUFFER_POOL = new ConcurrentLinkedQueue<>();
+    // buffers waiting in a write queue, sampled whenever one is added
+    private static final Histogram WRITE_QUEUE_DEPTH = MetricsRegistry.getInstance().histogram("reactor.write.queue.depth");
 
     private final MessagingProtocol<T> protocol;
     private final MessageEncoderDecoder<T> encdec;
     private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+    // size of writeQueue, which the queue itself can only count by walking it
+    private final AtomicInteger queuedBuffers = new AtomicInteger();
+    // writes of traced frames still in writeQueue
+    private final Queue<TracedWrite> tracedWrites = new ConcurrentLinkedQueue<>();
     private final SocketChannel chan;
     private final Reactor reactor;
+    private final int captureId;
+    // set by close() while writes were queued, the connection is closed once they were written
+    private volatile boolean closeRequested = false;
 
     public NonBlockingConnectionHandler(
             MessageEncoderDecoder<T> reader,
@@ -30,9 +45,15 @@ public class NonBlockingConnectionHandler<T> implements ConnectionHandler<T> {
         this.encdec = reader;
         this.protocol = protocol;
         this.reactor = reactor;
+        this.captureId = TrafficCapture.opened(chan.socket().getLocalPort(), reader);
     }
 
     public Runnable continueRead() {
+        if (closeRequested) {
+            // a send may have registered reads again before it saw the close request
+            reactor.updateInterestedOps(chan, SelectionKey.OP_WRITE);
+            return null;
+        }
         ByteBuffer buf = leaseBuffer();
 
         boolean success = false;
@@ -44,15 +65,22 @@ public class NonBlockingConnectionHandler<T> implements ConnectionHandler<T> {
 
         if (success) {
             buf.flip();
+            TrafficCapture.read(captureId, buf);
+            long readTime = LatencyTracer.readTime();
             return () -> {
                 try {
                     while (buf.hasRemaining()) {
                         T nextMessage = encdec.decodeNextByte(buf.get());
                         if (nextMessage != null) {
-                            T response = protocol.process(nextMessage);
-                            if (response != null) {
-                                writeQueue.add(ByteBuffer.wrap(encdec.encode(response)));
-                                reactor.updateInterestedOps(chan, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                            LatencyTracer.Trace trace = LatencyTracer.decoded(readTime);
+                            LatencyTracer.processing(trace);
+                            try {
+                                T response = protocol.process(nextMessage);
+                                if (response != null) {
+                                    send(response);
+                                }
+                            } finally {
+                                LatencyTracer.processed(trace);
                             }
                         }
                     }
@@ -62,14 +90,31 @@ public class NonBlockingConnectionHandler<T> implements ConnectionHandler<T> {
             };
         } else {
             releaseBuffer(buf);
-            close();
+            closeNow();
             return null;
         }
 
     }
 
+    /**
+     * Close the connection once the frames already queued for it, like the RECEIPT of a DISCONNECT or an ERROR,
+     * were written. Nothing more is read from it meanwhile.
+     */
     public void close() {
+        if (writeQueue.isEmpty()) {
+            closeNow();
+            return;
+        }
+        closeRequested = true;
+        // continueWrite closes it when the queue is empty, even if it emptied before the flag was seen
+        reactor.updateInterestedOps(chan, SelectionKey.OP_WRITE);
+    }
+
+    private void closeNow() {
         try {
+            if (chan.isOpen()) {
+                TrafficCapture.closed(captureId);
+            }
             chan.close();
         } catch (IOException ex) {
             ex.printStackTrace();
@@ -89,15 +134,23 @@ public class NonBlockingConnectionHandler<T> implements ConnectionHandler<T> {
                     return;
                 } else {
                     writeQueue.remove();
+                    queuedBuffers.decrementAndGet();
+                    if (!tracedWrites.isEmpty()) {
+                        flushedTraced(top);
+                    }
+                    if (top.isDirect()) {
+                        releaseBuffer(top);
+                    }
                 }
             } catch (IOException ex) {
                 ex.printStackTrace();
-                close();
+                closeNow();
+                return;
             }
         }
 
         if (writeQueue.isEmpty()) {
-            if (protocol.shouldTerminate()) close();
+            if (protocol.shouldTerminate() || closeRequested) closeNow();
             else reactor.updateInterestedOps(chan, SelectionKey.OP_READ);
         }
     }
@@ -119,8 +172,100 @@ public class NonBlockingConnectionHandler<T> implements ConnectionHandler<T> {
     @Override
     public void send(T msg) {
         if (msg != null) {
-            writeQueue.add(ByteBuffer.wrap(encdec.encode(msg)));
-            reactor.updateInterestedOps(chan, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            enqueue(encodeToBuffer(msg, leaseBuffer()));
+            reactor.updateInterestedOps(chan, writeOps());
+        }
+    }
+
+    @Override
+    public void sendAll(List<T> msgs) {
+        if (msgs.isEmpty()) {
+            return;
+        }
+        // pack as many frames as fit into each pooled buffer
+        ByteBuffer buf = leaseBuffer();
+        for (T msg : msgs) {
+            if (encdec.encode(msg, buf)) {
+                continue;
+            }
+            if (buf.position() > 0) {
+                // the buffer is full, queue it and continue on a fresh one
+                buf.flip();
+                enqueue(buf);
+                buf = leaseBuffer();
+                if (encdec.encode(msg, buf)) {
+                    continue;
+                }
+            }
+            // larger than a pooled buffer
+            enqueue(ByteBuffer.wrap(encdec.encode(msg)));
+        }
+        if (buf.position() > 0) {
+            buf.flip();
+            enqueue(buf);
+        } else {
+            releaseBuffer(buf);
+        }
+        reactor.updateInterestedOps(chan, writeOps());
+    }
+
+    /**
+     * @return the operations to wait for once a write was queued, reads only while no close was requested
+     */
+    private int writeOps() {
+        return closeRequested ? SelectionKey.OP_WRITE : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+    }
+
+    private void enqueue(ByteBuffer buf) {
+        LatencyTracer.Trace trace = LatencyTracer.current();
+        if (trace != null) {
+            tracedWrites.add(new TracedWrite(buf, trace, trace.enqueued()));
+        }
+        writeQueue.add(buf);
+        WRITE_QUEUE_DEPTH.record(queuedBuffers.incrementAndGet());
+    }
+
+    /**
+     * Complete the trace of a written buffer, if it has one.
+     * Writers may add to tracedWrites and writeQueue in different orders, so the buffer is looked up
+     * rather than expected at the head.
+     */
+    private void flushedTraced(ByteBuffer written) {
+        for (Iterator<TracedWrite> it = tracedWrites.iterator(); it.hasNext(); ) {
+            TracedWrite traced = it.next();
+            if (traced.buffer == written) {
+                it.remove();
+                traced.trace.flushed(traced.enqueueTime);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Encode a message into a pooled buffer, or into a buffer of its own if it is larger than the pooled ones
+     * @return the buffer, flipped and ready to be written
+     */
+    private ByteBuffer encodeToBuffer(T msg, ByteBuffer pooled) {
+        if (encdec.encode(msg, pooled)) {
+            pooled.flip();
+            return pooled;
+        }
+        releaseBuffer(pooled);
+        return ByteBuffer.wrap(encdec.encode(msg));
+    }
+
+    /**
+     * A buffer queued while processing a traced frame
+     */
+    private static class TracedWrite {
+        private final ByteBuffer buffer;
+        private final LatencyTracer.Trace trace;
+        private final long enqueueTime;
+
+        TracedWrite(ByteBuffer buffer, LatencyTracer.Trace trace, long enqueueTime) {
+            this.buffer = buffer;
+            this.trace = trace;
+            this.enqueueTime = enqueueTime;
         }
     }
 }
@@ -2,21 +2,27 @@ package bgu.spl.net.srv;
 
 import bgu.spl.net.api.MessageEncoderDecoder;
 import bgu.spl.net.api.MessagingProtocol;
+import bgu.spl.net.metrics.SelectorEvent;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.function.Supplier;
 
 public class Reactor<T> implements Server<T> {
 
-    private final int port;
     private final Supplier<MessagingProtocol<T>> protocolFactory;
-    private final Supplier<MessageEncoderDecoder<T>> readerFactory;
+    // ports to accept clients on, each with the encoder/decoder of its framing
+    private final Map<Integer, Supplier<MessageEncoderDecoder<T>>> listeners = new LinkedHashMap<>();
     private final ActorThreadPool pool;
     private Selector selector;
 
@@ -30,40 +36,61 @@ public class Reactor<T> implements Server<T> {
             Supplier<MessageEncoderDecoder<T>> readerFactory) {
 
         this.pool = new ActorThreadPool(numThreads);
-        this.port = port;
         this.protocolFactory = protocolFactory;
-        this.readerFactory = readerFactory;
+        this.listeners.put(port, readerFactory);
+    }
+
+    /**
+     * Also accept clients on another port, framing their messages with a different encoder/decoder.
+     * Clients of all ports share the protocol and the connections. Must be called before {@link #serve()}.
+     */
+    public void listen(int port, Supplier<MessageEncoderDecoder<T>> readerFactory) {
+        listeners.put(port, readerFactory);
     }
 
     @Override
     public void serve() {
 	selectorThread = Thread.currentThread();
-        try (Selector selector = Selector.open();
-                ServerSocketChannel serverSock = ServerSocketChannel.open()) {
+        List<ServerSocketChannel> serverSocks = new ArrayList<>();
+        try (Selector selector = Selector.open()) {
 
             this.selector = selector; //just to be able to close
 
-            serverSock.bind(new InetSocketAddress(port));
-            serverSock.configureBlocking(false);
-            serverSock.register(selector, SelectionKey.OP_ACCEPT);
+            for (Map.Entry<Integer, Supplier<MessageEncoderDecoder<T>>> listener : listeners.entrySet()) {
+                ServerSocketChannel serverSock = ServerSocketChannel.open();
+                serverSocks.add(serverSock);
+                serverSock.bind(new InetSocketAddress(listener.getKey()));
+                serverSock.configureBlocking(false);
+                serverSock.register(selector, SelectionKey.OP_ACCEPT, listener.getValue());
+            }
 			System.out.println("Server started");
 
             while (!Thread.currentThread().isInterrupted()) {
 
                 selector.select();
-                runSelectionThreadTasks();
+                SelectorEvent event = new SelectorEvent();
+                event.begin();
+                int tasks = runSelectionThreadTasks();
 
                 for (SelectionKey key : selector.selectedKeys()) {
 
                     if (!key.isValid()) {
                         continue;
                     } else if (key.isAcceptable()) {
-                        handleAccept(serverSock, selector);
+                        @SuppressWarnings("unchecked")
+                        Supplier<MessageEncoderDecoder<T>> readerFactory = (Supplier<MessageEncoderDecoder<T>>) key.attachment();
+                        handleAccept((ServerSocketChannel) key.channel(), readerFactory, selector);
                     } else {
                         handleReadWrite(key);
                     }
                 }
 
+                event.end();
+                if (event.shouldCommit()) {
+                    event.selectedKeys = selector.selectedKeys().size();
+                    event.tasks = tasks;
+                    event.commit();
+                }
                 selector.selectedKeys().clear(); //clear the selected keys set so that we can know about new events
 
             }
@@ -73,6 +100,14 @@ public class Reactor<T> implements Server<T> {
         } catch (IOException ex) {
             //this is an error
             ex.printStackTrace();
+        } finally {
+            for (ServerSocketChannel serverSock : serverSocks) {
+                try {
+                    serverSock.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
         }
 
         System.out.println("server closed!!!");
@@ -81,18 +116,30 @@ public class Reactor<T> implements Server<T> {
 
     /*package*/ void updateInterestedOps(SocketChannel chan, int ops) {
         final SelectionKey key = chan.keyFor(selector);
+        if (key == null) {
+            return; // the connection was closed meanwhile
+        }
         if (Thread.currentThread() == selectorThread) {
-            key.interestOps(ops);
+            setInterestedOps(key, ops);
         } else {
             selectorTasks.add(() -> {
-                key.interestOps(ops);
+                setInterestedOps(key, ops);
             });
             selector.wakeup();
         }
     }
 
+    private static void setInterestedOps(SelectionKey key, int ops) {
+        try {
+            key.interestOps(ops);
+        } catch (CancelledKeyException ex) {
+            // the connection was closed by another thread, it must not take the selector thread down
+        }
+    }
+
 
-    private void handleAccept(ServerSocketChannel serverChan, Selector selector) throws IOException {
+    private void handleAccept(ServerSocketChannel serverChan, Supplier<MessageEncoderDecoder<T>> readerFactory,
+            Selector selector) throws IOException {
         SocketChannel clientChan = serverChan.accept();
         clientChan.configureBlocking(false);
         
@@ -106,7 +153,7 @@ public class Reactor<T> implements Server<T> {
         // If protocol is a StompProtocolAdapter, register the handler
         if (protocol instanceof bgu.spl.net.impl.stomp.StompProtocolAdapter) {
             ((bgu.spl.net.impl.stomp.StompProtocolAdapter) protocol).setHandler(
-                (bgu.spl.net.srv.ConnectionHandler<String>) (Object) handler);
+                (bgu.spl.net.srv.ConnectionHandler<bgu.spl.net.impl.stomp.StompFrame>) (Object) handler);
         }
         
         clientChan.register(selector, SelectionKey.OP_READ, handler);
@@ -116,22 +163,32 @@ public class Reactor<T> implements Server<T> {
         @SuppressWarnings("unchecked")
         NonBlockingConnectionHandler<T> handler = (NonBlockingConnectionHandler<T>) key.attachment();
 
-        if (key.isReadable()) {
-            Runnable task = handler.continueRead();
-            if (task != null) {
-                pool.submit(handler, task);
+        try {
+            if (key.isReadable()) {
+                Runnable task = handler.continueRead();
+                if (task != null) {
+                    pool.submit(handler, task);
+                }
             }
-        }
 
-	    if (key.isValid() && key.isWritable()) {
-            handler.continueWrite();
+            if (key.isValid() && key.isWritable()) {
+                handler.continueWrite();
+            }
+        } catch (CancelledKeyException ex) {
+            // closed by another thread while it was selected
         }
     }
 
-    private void runSelectionThreadTasks() {
+    /**
+     * @return the number of tasks run
+     */
+    private int runSelectionThreadTasks() {
+        int tasks = 0;
         while (!selectorTasks.isEmpty()) {
             selectorTasks.remove().run();
+            tasks++;
         }
+        return tasks;
     }
 
     @Override
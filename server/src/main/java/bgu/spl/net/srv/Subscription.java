@@ -1,17 +1,36 @@
 package bgu.spl.net.srv;
 
+import java.util.Map;
+import java.util.function.Predicate;
+
 /**
  * Represents a subscription to a channel
  */
 public class Subscription {
+    /**
+     * In-flight window used by client-ack subscriptions that do not ask for a specific one
+     */
+    public static final int DEFAULT_PREFETCH = 16;
+
     private final String subscriptionId;
     private final String channel;
     private final int connectionId;
+    private final AckMode ackMode;
+    private final int prefetch;
+    private final Predicate<Map<String, String>> selector;
 
     public Subscription(String subscriptionId, String channel, int connectionId) {
+        this(subscriptionId, channel, connectionId, AckMode.AUTO, DEFAULT_PREFETCH, null);
+    }
+
+    public Subscription(String subscriptionId, String channel, int connectionId, AckMode ackMode, int prefetch,
+            Predicate<Map<String, String>> selector) {
         this.subscriptionId = subscriptionId;
         this.channel = channel;
         this.connectionId = connectionId;
+        this.ackMode = ackMode;
+        this.prefetch = prefetch;
+        this.selector = selector;
     }
 
     public String getSubscriptionId() {
@@ -26,6 +45,24 @@ public class Subscription {
         return connectionId;
     }
 
+    public AckMode getAckMode() {
+        return ackMode;
+    }
+
+    /**
+     * @return the maximal number of unacknowledged messages this subscription may hold
+     */
+    public int getPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * @return the filter messages must pass to be delivered, matched against the message fields, or null to receive all
+     */
+    public Predicate<Map<String, String>> getSelector() {
+        return selector;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -50,6 +87,7 @@ public class Subscription {
                 "subId='" + subscriptionId + '\'' +
                 ", channel='" + channel + '\'' +
                 ", connId=" + connectionId +
+                ", ack=" + ackMode +
                 '}';
     }
 }
@@ -0,0 +1,373 @@
+package bgu.spl.net.srv;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Index of subscriptions by destination pattern.
+ * Subscriptions to a plain destination are kept by the full destination name, which only that exact name matches.
+ * Patterns are split into segments on '/', empty segments included (so "/games/" is "", games, "").
+ * In a pattern, a "*" segment matches exactly one segment and a "**" segment matches any number of them,
+ * e.g. "/games/*" matches "/games/germany_japan" but not "/games/germany/japan".
+ * A '*' inside a segment matches any characters of that one segment, so the flat game channels can be
+ * matched by team, e.g. "/germany_*" matches "/germany_japan" and "/*_japan" matches "/germany_japan".
+ * Matching walks the trie one segment at a time and visits each trie node at most once per destination segment,
+ * so its cost depends on the depth of the destination rather than on the number of subscribed patterns.
+ */
+public class TopicTrie {
+
+    public static final String SINGLE_WILDCARD = "*";
+    public static final String MULTI_WILDCARD = "**";
+
+    // subscriptions to destinations without wildcards, by destination name
+    private final Map<String, Set<Subscription>> exact = new HashMap<>();
+    // subscriptions to patterns
+    private final Node root = new Node(null, null);
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // incremented on every change, invalidates the matches cached by Destination handles
+    private long version = 0;
+
+    /**
+     * Split a destination or pattern into its segments
+     */
+    public static List<String> segments(String destination) {
+        List<String> segments = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= destination.length(); i++) {
+            if (i == destination.length() || destination.charAt(i) == '/') {
+                segments.add(destination.substring(start, i));
+                start = i + 1;
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * @return true if the destination contains wildcards, whole segments or inside a segment
+     */
+    public static boolean isPattern(String destination) {
+        return destination.indexOf('*') >= 0;
+    }
+
+    /**
+     * The segments of a pattern as stored in the trie, a run of "**" segments matches the same destinations
+     * as a single one so it is stored as one
+     */
+    private static List<String> patternSegments(String pattern) {
+        List<String> segments = segments(pattern);
+        for (int i = segments.size() - 1; i > 0; i--) {
+            if (segments.get(i).equals(MULTI_WILDCARD) && segments.get(i - 1).equals(MULTI_WILDCARD)) {
+                segments.remove(i);
+            }
+        }
+        return segments;
+    }
+
+    public void add(Subscription subscription) {
+        lock.writeLock().lock();
+        try {
+            String channel = subscription.getChannel();
+            if (isPattern(channel)) {
+                Node node = root;
+                for (String segment : patternSegments(channel)) {
+                    node = node.child(segment);
+                }
+                node.subscriptions.add(subscription);
+            } else {
+                exact.computeIfAbsent(channel, name -> new LinkedHashSet<>()).add(subscription);
+            }
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Subscription subscription) {
+        lock.writeLock().lock();
+        try {
+            String channel = subscription.getChannel();
+            if (!isPattern(channel)) {
+                Set<Subscription> subscriptions = exact.get(channel);
+                if (subscriptions != null && subscriptions.remove(subscription)) {
+                    version++;
+                    if (subscriptions.isEmpty()) {
+                        exact.remove(channel);
+                    }
+                }
+                return;
+            }
+            Node node = root;
+            for (String segment : patternSegments(channel)) {
+                node = node.existingChild(segment);
+                if (node == null) {
+                    return;
+                }
+            }
+            if (node.subscriptions.remove(subscription)) {
+                version++;
+            }
+            node.prune();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return every subscription whose pattern matches the destination, in no particular order
+     */
+    public Collection<Subscription> match(String destination) {
+        Set<Subscription> matches = new LinkedHashSet<>();
+        lock.readLock().lock();
+        try {
+            match(destination, segments(destination), matches);
+        } finally {
+            lock.readLock().unlock();
+        }
+        return matches;
+    }
+
+    /**
+     * @return every subscription matching the destination, reusing the handle's cached result
+     * while no subscription was added or removed since it was computed. The result must not be modified.
+     */
+    public Collection<Subscription> match(Destination destination) {
+        lock.readLock().lock();
+        try {
+            Collection<Subscription> matches = destination.cachedMatches(version);
+            if (matches == null) {
+                Set<Subscription> found = new LinkedHashSet<>();
+                match(destination.getName(), destination.segments(), found);
+                matches = Collections.unmodifiableCollection(found);
+                destination.cacheMatches(version, matches);
+            }
+            return matches;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void match(String destination, List<String> segments, Set<Subscription> matches) {
+        Set<Subscription> subscriptions = exact.get(destination);
+        if (subscriptions != null) {
+            matches.addAll(subscriptions);
+        }
+        new Matcher(segments, matches).match(root, 0);
+    }
+
+    /**
+     * One walk of the trie for a destination. Several "**" can reach the same node at the same segment,
+     * the walk goes on from there only the first time.
+     */
+    private static class Matcher {
+        private final List<String> segments;
+        private final Set<Subscription> matches;
+        // (node, segment index) pairs already walked, created by the first "**" on the way
+        private Set<Visit> visited;
+
+        Matcher(List<String> segments, Set<Subscription> matches) {
+            this.segments = segments;
+            this.matches = matches;
+        }
+
+        void match(Node node, int index) {
+            if (node.multi != null) {
+                // "**" consumes any number of the remaining segments, including none
+                if (visited == null) {
+                    visited = new HashSet<>();
+                }
+                for (int next = index; next <= segments.size(); next++) {
+                    if (visited.add(new Visit(node.multi, next))) {
+                        match(node.multi, next);
+                    }
+                }
+            }
+            if (index == segments.size()) {
+                matches.addAll(node.subscriptions);
+                return;
+            }
+            String segment = segments.get(index);
+            Node exact = node.children.get(segment);
+            if (exact != null) {
+                match(exact, index + 1);
+            }
+            if (node.single != null) {
+                match(node.single, index + 1);
+            }
+            if (!node.globs.isEmpty()) {
+                matchGlobs(node, segment, index);
+            }
+        }
+
+        private void matchGlobs(Node node, String segment, int index) {
+            // globs are indexed by their text before the first '*', only the prefixes of the segment are looked up
+            for (int length : node.globPrefixLengths.keySet()) {
+                if (length > segment.length()) {
+                    continue;
+                }
+                List<Node> globs = node.globs.get(segment.substring(0, length));
+                if (globs == null) {
+                    continue;
+                }
+                for (Node glob : globs) {
+                    if (globMatches(glob.segment, length, segment, length)) {
+                        match(glob, index + 1);
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Visit {
+        private final Node node;
+        private final int index;
+
+        Visit(Node node, int index) {
+            this.node = node;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Visit && ((Visit) other).node == node && ((Visit) other).index == index;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(node) * 31 + index;
+        }
+    }
+
+    /**
+     * @return true if a segment glob matches a segment, from the given positions on. A '*' of the glob
+     * matches any run of characters, backtracking only to the last '*', so the cost is linear in practice.
+     */
+    private static boolean globMatches(String glob, int g, String segment, int s) {
+        int star = -1;
+        int starMatch = 0;
+        while (s < segment.length()) {
+            if (g < glob.length() && glob.charAt(g) == '*') {
+                star = g++;
+                starMatch = s;
+            } else if (g < glob.length() && glob.charAt(g) == segment.charAt(s)) {
+                g++;
+                s++;
+            } else if (star >= 0) {
+                g = star + 1;
+                s = ++starMatch;
+            } else {
+                return false;
+            }
+        }
+        while (g < glob.length() && glob.charAt(g) == '*') {
+            g++;
+        }
+        return g == glob.length();
+    }
+
+    private static boolean isGlob(String segment) {
+        return segment.indexOf('*') >= 0 && !segment.equals(SINGLE_WILDCARD) && !segment.equals(MULTI_WILDCARD);
+    }
+
+    private static class Node {
+        private final Node parent;
+        private final String segment;
+        private final Map<String, Node> children = new HashMap<>();
+        private Node single;
+        private Node multi;
+        // children whose segment has a '*' among other characters, by the text before the first '*'
+        private final Map<String, List<Node>> globs = new HashMap<>();
+        // number of glob prefixes of each length
+        private final Map<Integer, Integer> globPrefixLengths = new HashMap<>();
+        private final Set<Subscription> subscriptions = new LinkedHashSet<>();
+
+        Node(Node parent, String segment) {
+            this.parent = parent;
+            this.segment = segment;
+        }
+
+        Node child(String segment) {
+            Node child = existingChild(segment);
+            if (child == null) {
+                child = new Node(this, segment);
+                if (segment.equals(SINGLE_WILDCARD)) {
+                    single = child;
+                } else if (segment.equals(MULTI_WILDCARD)) {
+                    multi = child;
+                } else if (isGlob(segment)) {
+                    String prefix = globPrefix(segment);
+                    List<Node> samePrefix = globs.computeIfAbsent(prefix, p -> new ArrayList<>());
+                    if (samePrefix.isEmpty()) {
+                        globPrefixLengths.merge(prefix.length(), 1, Integer::sum);
+                    }
+                    samePrefix.add(child);
+                } else {
+                    children.put(segment, child);
+                }
+            }
+            return child;
+        }
+
+        Node existingChild(String segment) {
+            if (segment.equals(SINGLE_WILDCARD)) {
+                return single;
+            } else if (segment.equals(MULTI_WILDCARD)) {
+                return multi;
+            } else if (isGlob(segment)) {
+                List<Node> samePrefix = globs.get(globPrefix(segment));
+                if (samePrefix != null) {
+                    for (Node glob : samePrefix) {
+                        if (glob.segment.equals(segment)) {
+                            return glob;
+                        }
+                    }
+                }
+                return null;
+            }
+            return children.get(segment);
+        }
+
+        private void removeGlob(Node glob) {
+            String prefix = globPrefix(glob.segment);
+            List<Node> samePrefix = globs.get(prefix);
+            samePrefix.remove(glob);
+            if (samePrefix.isEmpty()) {
+                globs.remove(prefix);
+                globPrefixLengths.computeIfPresent(prefix.length(), (length, count) -> count == 1 ? null : count - 1);
+            }
+        }
+
+        private static String globPrefix(String segment) {
+            return segment.substring(0, segment.indexOf('*'));
+        }
+
+        /**
+         * Remove this node and its empty ancestors from the trie
+         */
+        void prune() {
+            Node node = this;
+            while (node.parent != null && node.subscriptions.isEmpty() && node.children.isEmpty()
+                    && node.single == null && node.multi == null && node.globs.isEmpty()) {
+                Node parent = node.parent;
+                if (parent.single == node) {
+                    parent.single = null;
+                } else if (parent.multi == node) {
+                    parent.multi = null;
+                } else if (isGlob(node.segment)) {
+                    parent.removeGlob(node);
+                } else {
+                    parent.children.remove(node.segment);
+                }
+                node = parent;
+            }
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package bgu.spl.net.srv;
+
+import bgu.spl.net.log.Log;
+import bgu.spl.net.log.Logger;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the bytes clients send to the server, so a production run can be replayed against another server.
+ *
+ * Capture is turned on by the system property stomp.capture, the file to write. The connection handlers report
+ * every connection they open, every chunk they read and every close. Bytes are captured as read, before decoding,
+ * so the capture is independent of the framing and replays exactly what the server saw.
+ *
+ * The file starts with the int {@link #MAGIC} and a version byte, followed by records:
+ * <pre>
+ * byte   type             OPEN, DATA or CLOSE
+ * varint time             microseconds since the previous record
+ * varint connection       numbered by the capture from 1, in order of opening
+ * OPEN:  varint port      the server port the client connected to
+ *        varint length, UTF-8 simple class name of the connection's decoder, which tells its framing
+ * DATA:  varint length, the bytes read
+ * </pre>
+ * Varints are unsigned LEB128, as in the binary framing. Records are written in the order the handlers report
+ * them, so the reads of one connection keep their order.
+ *
+ * Secrets are not written: a decoder implementing {@link Redacting} masks them, like the passcode of a STOMP
+ * CONNECT, in a copy of the bytes read. Masking keeps their length, so the capture still replays frame by frame.
+ */
+public final class TrafficCapture {
+
+    public static final int MAGIC = 0x53544350; // "STCP"
+    public static final int VERSION = 1;
+
+    public static final byte OPEN = 1;
+    public static final byte DATA = 2;
+    public static final byte CLOSE = 3;
+
+    private static final Logger log = Log.getLogger(TrafficCapture.class);
+
+    public static final String PATH = System.getProperty("stomp.capture");
+    public static final boolean ENABLED = PATH != null;
+
+    private static final TrafficCapture capture = ENABLED ? open(PATH) : null;
+
+    private final DataOutputStream out;
+    private final long start = System.nanoTime();
+    private long lastMicros = 0;
+    private int lastConnection = 0;
+    private byte[] scratch = new byte[1 << 13];
+    private boolean failed = false;
+    // redactors of the open connections whose decoders have one
+    private final Map<Integer, Redactor> redactors = new HashMap<>();
+
+    private TrafficCapture(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        this.out.writeInt(MAGIC);
+        this.out.writeByte(VERSION);
+    }
+
+    private static TrafficCapture open(String path) {
+        try {
+            TrafficCapture capture = new TrafficCapture(new FileOutputStream(path));
+            Runtime.getRuntime().addShutdownHook(new Thread(capture::finish, "capture-finish"));
+            log.info("Capturing client traffic to {}", path);
+            return capture;
+        } catch (IOException ex) {
+            log.error("Cannot open the capture file " + path, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Record a new connection to the port, decoded by the decoder
+     * @return the connection's id in the capture, 0 if capture is off
+     */
+    public static int opened(int port, Object decoder) {
+        if (capture == null) {
+            return 0;
+        }
+        Redactor redactor = decoder instanceof Redacting ? ((Redacting) decoder).redactor() : null;
+        return capture.open(port, decoder.getClass().getSimpleName(), redactor);
+    }
+
+    /**
+     * Record bytes read from a connection
+     */
+    public static void read(int connection, byte[] bytes, int offset, int length) {
+        if (capture != null && connection != 0) {
+            capture.data(connection, bytes, offset, length);
+        }
+    }
+
+    /**
+     * Record the bytes between the position and the limit of a buffer, which is left as it was
+     */
+    public static void read(int connection, ByteBuffer buf) {
+        if (capture != null && connection != 0) {
+            capture.data(connection, buf);
+        }
+    }
+
+    public static void closed(int connection) {
+        if (capture != null && connection != 0) {
+            capture.close(connection);
+        }
+    }
+
+    private synchronized int open(int port, String decoder, Redactor redactor) {
+        int connection = ++lastConnection;
+        if (redactor != null) {
+            redactors.put(connection, redactor);
+        }
+        if (header(OPEN, connection)) {
+            byte[] name = decoder.getBytes(StandardCharsets.UTF_8);
+            write(() -> {
+                writeVarint(port);
+                writeVarint(name.length);
+                out.write(name);
+            });
+        }
+        return connection;
+    }
+
+    private synchronized void data(int connection, byte[] bytes, int offset, int length) {
+        Redactor redactor = redactors.get(connection);
+        if (redactor == null) {
+            record(connection, bytes, offset, length);
+            return;
+        }
+        if (bytes != scratch) {
+            // the handler still decodes the bytes read, they are masked in a copy
+            ensureScratch(length);
+            System.arraycopy(bytes, offset, scratch, 0, length);
+        }
+        redactor.redact(scratch, 0, length);
+        record(connection, scratch, 0, length);
+    }
+
+    private void record(int connection, byte[] bytes, int offset, int length) {
+        if (header(DATA, connection)) {
+            write(() -> {
+                writeVarint(length);
+                out.write(bytes, offset, length);
+            });
+        }
+    }
+
+    private synchronized void data(int connection, ByteBuffer buf) {
+        int length = buf.remaining();
+        ensureScratch(length);
+        buf.duplicate().get(scratch, 0, length);
+        data(connection, scratch, 0, length);
+    }
+
+    private void ensureScratch(int length) {
+        if (scratch.length < length) {
+            scratch = new byte[length];
+        }
+    }
+
+    private synchronized void close(int connection) {
+        redactors.remove(connection);
+        header(CLOSE, connection);
+    }
+
+    private synchronized void finish() {
+        try {
+            out.close();
+        } catch (IOException ex) {
+            log.warn("Cannot close the capture file", ex);
+        }
+        failed = true; // nothing is written after closing
+    }
+
+    private boolean header(byte type, int connection) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        long delta = micros - lastMicros;
+        lastMicros = micros;
+        return write(() -> {
+            out.writeByte(type);
+            writeVarint(delta);
+            writeVarint(connection);
+        });
+    }
+
+    /**
+     * Run a write, a failed write stops the capture without affecting the server
+     */
+    private boolean write(CaptureWrite write) {
+        if (failed) {
+            return false;
+        }
+        try {
+            write.run();
+            return true;
+        } catch (IOException ex) {
+            failed = true;
+            log.error("Capture stopped, writing " + PATH + " failed", ex);
+            return false;
+        }
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private interface CaptureWrite {
+        void run() throws IOException;
+    }
+
+    /**
+     * Implemented by decoders whose framing carries secrets
+     */
+    public interface Redacting {
+        /**
+         * @return a new redactor for the bytes of one connection
+         */
+        Redactor redactor();
+    }
+
+    /**
+     * Masks the secrets in the bytes read from one connection, which it is given in order.
+     * A secret may be split over several reads.
+     */
+    public interface Redactor {
+        /**
+         * Mask the secrets in place, keeping their length
+         */
+        void redact(byte[] bytes, int offset, int length);
+    }
+
+    /**
+     * Reads a capture file record by record. After {@link #next()} returned true, the fields describe the record.
+     */
+    public static final class Reader implements Closeable {
+        private final DataInputStream in;
+
+        /** OPEN, DATA or CLOSE */
+        public byte type;
+        /** microseconds since the start of the capture */
+        public long time;
+        public int connection;
+        /** the port of an OPEN */
+        public int port;
+        /** the simple class name of the decoder of an OPEN */
+        public String decoder;
+        /** the bytes of a DATA, valid up to length, reused by the next record */
+        public byte[] data = new byte[1 << 13];
+        public int length;
+
+        public Reader(String path) throws IOException {
+            this(new FileInputStream(path));
+        }
+
+        public Reader(InputStream in) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+            if (this.in.readInt() != MAGIC) {
+                throw new IOException("Not a capture file");
+            }
+            int version = this.in.readUnsignedByte();
+            if (version != VERSION) {
+                throw new IOException("Unsupported capture version " + version);
+            }
+        }
+
+        /**
+         * @return false at the end of the capture, which may be cut in the middle of a record
+         */
+        public boolean next() throws IOException {
+            int read = in.read();
+            if (read < 0) {
+                return false;
+            }
+            try {
+                type = (byte) read;
+                time += readVarint();
+                connection = (int) readVarint();
+                switch (type) {
+                    case OPEN:
+                        port = (int) readVarint();
+                        byte[] name = new byte[(int) readVarint()];
+                        in.readFully(name);
+                        decoder = new String(name, StandardCharsets.UTF_8);
+                        break;
+                    case DATA:
+                        length = (int) readVarint();
+                        if (data.length < length) {
+                            data = new byte[length];
+                        }
+                        in.readFully(data, 0, length);
+                        break;
+                    case CLOSE:
+                        break;
+                    default:
+                        throw new IOException("Unknown capture record type " + type);
+                }
+                return true;
+            } catch (EOFException ex) {
+                // the server was stopped while writing the record
+                return false;
+            }
+        }
+
+        private long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Invalid varint");
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}